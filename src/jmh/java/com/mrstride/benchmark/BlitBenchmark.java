@@ -0,0 +1,91 @@
+package com.mrstride.benchmark;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mrstride.entity.Entity;
+import com.mrstride.gui.MainFrame;
+import com.mrstride.services.DataService;
+import com.mrstride.services.ImageServiceProvider;
+
+/**
+ * The per-frame cost of drawing sprites straight from ImageIO ("raw") versus
+ * after ImageServiceProvider.toCompatibleImage() ("compatible").
+ *
+ * Each invocation draws the image SPRITES_PER_FRAME times with Entity.drawSprite()
+ * into an opaque frame the size of the MainFrame, like a frame of the game.
+ * Runs headless, so "compatible" means TYPE_INT_ARGB_PRE. On a real screen the
+ * compatible image may also be accelerated, which this does not measure.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class BlitBenchmark {
+
+    public static final int SPRITES_PER_FRAME = 100;
+
+    @Param({"goldStar.png", "penguin_sprite.png", "Zombie.png"})
+    public String file;
+
+    @Param({"raw", "compatible"})
+    public String format;
+
+    private BufferedImage frame;
+    private Graphics2D g;
+    private BufferedImage sprite;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        File path = Paths.get(System.getProperty("user.dir"), DataService.RESOURCES_PATH, "images", file).toFile();
+        sprite = ImageIO.read(path);
+        if (sprite == null) {
+            throw new IOException("Not a readable image: " + path);
+        }
+        if (format.equals("compatible")) {
+            sprite = ImageServiceProvider.toCompatibleImage(sprite);
+        }
+
+        frame = new BufferedImage(MainFrame.WIDTH, MainFrame.HEIGHT, BufferedImage.TYPE_INT_RGB);
+        g = frame.createGraphics();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        g.dispose();
+    }
+
+    @Benchmark
+    public BufferedImage drawSprites() {
+        int stepX = Math.max(1, (MainFrame.WIDTH - sprite.getWidth()) / 10);
+        int stepY = Math.max(1, (MainFrame.HEIGHT - sprite.getHeight()) / 10);
+        for (int i = 0; i < SPRITES_PER_FRAME; i++) {
+            int x = (i % 10) * stepX;
+            int y = (i / 10) * stepY;
+            Entity.drawSprite(g, sprite, x, y, sprite.getWidth(), sprite.getHeight());
+        }
+        return frame;
+    }
+}
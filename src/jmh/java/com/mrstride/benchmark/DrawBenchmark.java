@@ -0,0 +1,67 @@
+package com.mrstride.benchmark;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mrstride.gui.MainFrame;
+import com.mrstride.services.EntityManager;
+
+/**
+ * EntityManager.drawAllObjects() for the stress level into an offscreen
+ * image the size of the MainFrame, looking at the middle of the level.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class DrawBenchmark {
+
+    @Param({"1000", "10000"})
+    public int entityCount;
+
+    @Param({"100", "1000", "10000"})
+    public int lineCount;
+
+    private EntityManager manager;
+    private BufferedImage image;
+    private Graphics2D g;
+    private int xOffset;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        manager = StressLevel.create(entityCount, lineCount);
+        StressLevel.settle(manager);
+        manager.prepareFloors();
+
+        image = new BufferedImage(MainFrame.WIDTH, MainFrame.HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        g = image.createGraphics();
+        xOffset = StressLevel.getWidth(lineCount) / 2 - MainFrame.WIDTH / 2;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        g.dispose();
+    }
+
+    @Benchmark
+    public void drawAllObjects() {
+        manager.drawAllObjects(g, xOffset, 0, MainFrame.WIDTH, MainFrame.HEIGHT);
+    }
+}
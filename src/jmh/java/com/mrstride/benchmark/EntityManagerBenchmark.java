@@ -0,0 +1,53 @@
+package com.mrstride.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mrstride.services.EntityManager;
+
+/**
+ * One physics tick of the whole stress level: EntityManager.moveAllObjects().
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EntityManagerBenchmark {
+
+    @Param({"1000", "10000"})
+    public int entityCount;
+
+    @Param({"100", "1000", "10000"})
+    public int lineCount;
+
+    @Param({"false", "true"})
+    public boolean parallel;
+
+    private EntityManager manager;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        manager = StressLevel.create(entityCount, lineCount);
+        manager.setParallel(parallel);
+        StressLevel.settle(manager);
+    }
+
+    @Benchmark
+    public void moveAllObjects() {
+        manager.moveAllObjects();
+    }
+}
@@ -0,0 +1,107 @@
+package com.mrstride.benchmark;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.mrstride.entity.Entity;
+import com.mrstride.services.EntityStore;
+
+/**
+ * Compares the EntityStore with the LinkedList that EntityManager used before.
+ * 
+ * iterate: walk every entity, like moveAllObjects() and drawAllObjects() do.
+ * removeAndAdd: remove every 10th entity during a walk, then add the same
+ * number back so the size stays the same, like a tick with spawns and deaths.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EntityStoreBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    private LinkedList<Entity> list;
+    private EntityStore store;
+    private Entity[] spares;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        list = new LinkedList<>();
+        store = new EntityStore();
+        for (int i = 0; i < size; i++) {
+            Entity entity = new Entity(null, i, i % 800, 10, 10, null);
+            list.add(entity);
+            store.add(entity);
+        }
+        spares = new Entity[size / 10 + 1];
+        for (int i = 0; i < spares.length; i++) {
+            spares[i] = new Entity(null, i, 0, 10, 10, null);
+        }
+    }
+
+    @Benchmark
+    public void iterateLinkedList(Blackhole bh) {
+        for (Entity entity : list) {
+            bh.consume(entity.getBoundingRect());
+        }
+    }
+
+    @Benchmark
+    public void iterateEntityStore(Blackhole bh) {
+        for (int i = 0; i < store.size(); i++) {
+            bh.consume(store.get(i).getBoundingRect());
+        }
+    }
+
+    @Benchmark
+    public void removeAndAddLinkedList() {
+        int removed = 0;
+        int i = 0;
+        Iterator<Entity> iter = list.iterator();
+        while (iter.hasNext()) {
+            iter.next();
+            if (i++ % 10 == 0) {
+                iter.remove();
+                removed++;
+            }
+        }
+        for (int k = 0; k < removed; k++) {
+            list.add(spares[k]);
+        }
+    }
+
+    @Benchmark
+    public void removeAndAddEntityStore() {
+        int removed = 0;
+        int count = store.size();
+        for (int i = 0; i < count; i++) {
+            if (i % 10 == 0) {
+                store.markRemoved(i);
+                removed++;
+            }
+        }
+        store.compact();
+        for (int k = 0; k < removed; k++) {
+            store.add(spares[k]);
+        }
+    }
+}
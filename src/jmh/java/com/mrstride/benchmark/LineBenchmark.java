@@ -0,0 +1,49 @@
+package com.mrstride.benchmark;
+
+import java.awt.geom.Rectangle2D;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mrstride.gui.Line;
+
+/**
+ * Line.intersectsRect() for a hit, a miss far away from the line, and a miss
+ * inside the line's bounding box (the expensive kind of miss).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LineBenchmark {
+
+    private final Line line = new Line(0, 600, 1000, 800);
+    private final Rectangle2D.Double hit = new Rectangle2D.Double(500, 650, 30, 41);
+    private final Rectangle2D.Double farMiss = new Rectangle2D.Double(5000, 100, 30, 41);
+    private final Rectangle2D.Double nearMiss = new Rectangle2D.Double(500, 620, 30, 41);
+
+    @Benchmark
+    public boolean intersectsHit() {
+        return line.intersectsRect(hit);
+    }
+
+    @Benchmark
+    public boolean intersectsFarMiss() {
+        return line.intersectsRect(farMiss);
+    }
+
+    @Benchmark
+    public boolean intersectsNearMiss() {
+        return line.intersectsRect(nearMiss);
+    }
+}
@@ -0,0 +1,83 @@
+package com.mrstride.benchmark;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mrstride.entity.Entity;
+import com.mrstride.entity.FallingEntity;
+import com.mrstride.gui.Line;
+
+/**
+ * MovingEntity.update() for a single entity on a flat or sloped floor,
+ * either standing still or walking back and forth.
+ * 
+ * Run it with the GC profiler to see the allocation rate of the collision path.
+ * gc.alloc.rate.norm should be (close to) 0 B/op:
+ *   mvn -Pjmh compile exec:exec -Djmh.args="MovingEntityBenchmark -prof gc"
+ * AllocationTest checks the same thing, exactly, on every build.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MovingEntityBenchmark {
+
+    @Param({"flat", "sloped"})
+    public String floor;
+
+    @Param({"false", "true"})
+    public boolean walking;
+
+    private Entity entity;
+    private List<Line> floors;
+    private Queue<Entity> toAdd;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        floors = new ArrayList<>();
+        if (floor.equals("flat")) {
+            floors.add(new Line(0, 600, 4000, 600));
+        } else {
+            // about 11 degrees
+            floors.add(new Line(0, 600, 4000, 1400));
+        }
+        toAdd = new ArrayDeque<>();
+
+        int x = 2000;
+        int y = (int) floors.get(0).yAt(x) - 100;
+        if (walking) {
+            entity = new Walker(x, y, 30, 40, 200);
+        } else {
+            entity = new FallingEntity(null, x, y, 30, 40, null);
+        }
+        entity.init();
+
+        // land on the floor
+        for (int i = 0; i < 100; i++) {
+            entity.update(floors, toAdd);
+        }
+    }
+
+    @Benchmark
+    public boolean update() {
+        return entity.update(floors, toAdd);
+    }
+}
@@ -0,0 +1,129 @@
+package com.mrstride.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mrstride.entity.Entity;
+import com.mrstride.gui.Line;
+
+/**
+ * MovingEntity.update() for a walking entity on a sloped floor, logging through
+ * the game's real log4j configuration (log4j2-spring.xml) to real files.
+ *
+ * config picks how log4j2-spring.xml is loaded:
+ *   async     - as shipped: AsyncLoggers, files flushed once per batch
+ *   sync      - the same, but with plain Loggers, so the physics thread writes the files
+ *   immediate - plain Loggers and a flush after every event, the way the game
+ *               logged before the loggers were made asynchronous
+ *
+ * With physicsDebug the PhysicsFile logger is set to debug, which logs several
+ * lines on every update. Run it with the GC profiler to see the garbage too:
+ *   mvn -Pjmh compile exec:exec -Djmh.args="PhysicsLoggingBenchmark -prof gc"
+ *
+ * The log files go to a temporary directory that is deleted after each trial.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PhysicsLoggingBenchmark {
+
+    @Param({"immediate", "sync", "async"})
+    public String config;
+
+    @Param({"false", "true"})
+    public boolean physicsDebug;
+
+    private Path logDirectory;
+    private LoggerContext context;
+    private Entity entity;
+    private List<Line> floors;
+    private Queue<Entity> toAdd;
+
+    @Setup
+    public void setup() throws IOException {
+        logDirectory = Files.createTempDirectory("physics-logging");
+        context = (LoggerContext) LogManager.getContext(false);
+        context.setConfigLocation(writeConfig().toUri());
+        if (physicsDebug) {
+            Configurator.setLevel("PhysicsFile", Level.DEBUG);
+        }
+
+        floors = new ArrayList<>();
+        floors.add(new Line(0, 600, 4000, 1400));
+        toAdd = new ArrayDeque<>();
+        int x = 2000;
+        entity = new Walker(x, (int) floors.get(0).yAt(x) - 100, 30, 40, 200);
+        entity.init();
+
+        // land on the floor
+        for (int i = 0; i < 100; i++) {
+            entity.update(floors, toAdd);
+        }
+    }
+
+    /**
+     * Writes log4j2-spring.xml, changed for this trial's config, into the log directory.
+     *
+     * @return The file to configure log4j with
+     */
+    private Path writeConfig() throws IOException {
+        String xml;
+        try (InputStream in = getClass().getResourceAsStream("/log4j2-spring.xml")) {
+            xml = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        xml = xml.replace("fileName=\"logs/", "fileName=\"" + logDirectory.toAbsolutePath() + "/");
+        if (!config.equals("async")) {
+            xml = xml.replace("<AsyncLogger ", "<Logger ").replace("</AsyncLogger>", "</Logger>");
+        }
+        if (config.equals("immediate")) {
+            xml = xml.replace("immediateFlush=\"false\"", "immediateFlush=\"true\"");
+        }
+        Path file = logDirectory.resolve("log4j2.xml");
+        Files.writeString(file, xml);
+        return file;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        // stops the async logger thread and closes the files
+        context.stop();
+        try (Stream<Path> files = Files.walk(logDirectory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public boolean update() {
+        return entity.update(floors, toAdd);
+    }
+}
@@ -0,0 +1,93 @@
+package com.mrstride.benchmark;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mrstride.services.DataService;
+import com.mrstride.services.DecodedImageDiskCache;
+import com.mrstride.services.ImageService;
+import com.mrstride.services.ImageServiceProvider;
+
+/**
+ * Loading every image in the resources, as at startup, with and without the
+ * on-disk cache of decoded images.
+ *
+ * Each invocation uses a new ImageServiceProvider, so nothing is in the memory
+ * cache. With diskCache=true the disk cache is filled once before measuring, so
+ * this is the time of a later run. The OS file cache is warm in both cases.
+ * Conversion to compatible images is off so only loading is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class StartupBenchmark {
+
+    @Param({"false", "true"})
+    public boolean diskCache;
+
+    private Path cacheDir;
+    private String[] files;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        File images = Paths.get(System.getProperty("user.dir"), DataService.RESOURCES_PATH, "images").toFile();
+        files = images.list((dir, name) -> name.endsWith(".png"));
+
+        cacheDir = Files.createTempDirectory("image-cache");
+        if (diskCache) {
+            // the first run fills the cache
+            loadImages();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        new DecodedImageDiskCache(cacheDir).clear();
+        Files.deleteIfExists(cacheDir);
+    }
+
+    @Benchmark
+    public long loadAll() throws IOException {
+        return loadImages();
+    }
+
+    /**
+     * @return The total pixel count, so the loads cannot be optimized away
+     */
+    private long loadImages() throws IOException {
+        ImageServiceProvider provider = new ImageServiceProvider();
+        provider.setConvertImages(false);
+        provider.setDiskCacheDirectory(diskCache ? cacheDir.toString() : "");
+        for (String file : files) {
+            provider.addImageInfo(file, file, ImageService.NORMAL_TYPE);
+        }
+        long pixels = 0;
+        for (String file : files) {
+            BufferedImage image = provider.getImage(file);
+            pixels += (long) image.getWidth() * image.getHeight();
+        }
+        return pixels;
+    }
+}
@@ -0,0 +1,134 @@
+package com.mrstride.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.mrstride.entity.Entity;
+import com.mrstride.entity.FallingEntity;
+import com.mrstride.gui.Line;
+import com.mrstride.services.EntityManager;
+
+/**
+ * Generates a large level for the benchmarks.
+ * 
+ * The level is a long stretch of rolling ground made of connected sloped
+ * segments, with flat platforms floating above it and a wall at each end.
+ * Half of the entities fall and stand still, the other half pace back and forth.
+ * 
+ * The level only depends on the counts and SEED, so every run (and every
+ * release) benchmarks exactly the same level. If the generator is changed,
+ * bump VERSION so old and new results are not compared by mistake.
+ */
+public class StressLevel {
+
+    public static final int VERSION = 1;
+    public static final long SEED = 0x5EED_0001L;
+
+    public static final int SEGMENT_WIDTH = 100;
+    public static final int GROUND_Y = 600;
+    public static final int ENTITY_WIDTH = 30;
+    public static final int ENTITY_HEIGHT = 40;
+
+    // Most lines are ground. Every PLATFORM_EVERY-th line is a platform.
+    private static final int PLATFORM_EVERY = 4;
+
+    /**
+     * @param lineCount The number of floors and walls
+     * @return The width of the level in pixels
+     */
+    public static int getWidth(int lineCount) {
+        return Math.max(1, lineCount) * SEGMENT_WIDTH;
+    }
+
+    /**
+     * Creates the lines of the level, left to right.
+     * 
+     * @param lineCount The number of lines to create
+     * @return The lines
+     */
+    public static List<Line> createLines(int lineCount) {
+        Random random = new Random(SEED);
+        List<Line> lines = new ArrayList<>(lineCount);
+        int width = getWidth(lineCount);
+
+        // walls at both ends
+        lines.add(new Line(0, 0, 0, GROUND_Y + 200));
+        lines.add(new Line(width, 0, width, GROUND_Y + 200));
+
+        int x = 0;
+        int y = GROUND_Y;
+        while (lines.size() < lineCount) {
+            if (lines.size() % PLATFORM_EVERY == 0) {
+                // a flat platform somewhere above the ground
+                int px = random.nextInt(width);
+                int py = GROUND_Y - 100 - random.nextInt(200);
+                lines.add(new Line(px, py, px + SEGMENT_WIDTH, py));
+            } else {
+                // the next piece of ground, sloped up to about 30 degrees
+                int nextX = x + SEGMENT_WIDTH;
+                int nextY = Math.max(GROUND_Y - 100, Math.min(GROUND_Y + 100, y + random.nextInt(115) - 57));
+                lines.add(new Line(x, y, nextX, nextY));
+                x = nextX;
+                y = nextY;
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Creates the entities spread across the level above the ground.
+     * 
+     * @param entityCount The number of entities
+     * @param lineCount The number of lines in the level (sets the width)
+     * @return The initialized entities
+     */
+    public static List<Entity> createEntities(int entityCount, int lineCount) {
+        Random random = new Random(SEED + 1);
+        List<Entity> entities = new ArrayList<>(entityCount);
+        int width = getWidth(lineCount);
+        for (int i = 0; i < entityCount; i++) {
+            int x = ENTITY_WIDTH + random.nextInt(Math.max(1, width - 2 * ENTITY_WIDTH));
+            int y = 100 + random.nextInt(200);
+            Entity entity;
+            if (i % 2 == 0) {
+                entity = new FallingEntity(null, x, y, ENTITY_WIDTH, ENTITY_HEIGHT, null);
+            } else {
+                entity = new Walker(x, y, ENTITY_WIDTH, ENTITY_HEIGHT, 20 + random.nextInt(40));
+            }
+            entity.init();
+            entities.add(entity);
+        }
+        return entities;
+    }
+
+    /**
+     * Creates an EntityManager loaded with the stress level.
+     * 
+     * @param entityCount The number of entities
+     * @param lineCount The number of floors and walls
+     * @return The loaded EntityManager
+     */
+    public static EntityManager create(int entityCount, int lineCount) {
+        EntityManager manager = new EntityManager();
+        for (Line line : createLines(lineCount)) {
+            manager.addFloor(line);
+        }
+        for (Entity entity : createEntities(entityCount, lineCount)) {
+            manager.addEntity(entity);
+        }
+        return manager;
+    }
+
+    /**
+     * Runs enough ticks for the falling entities to land so that benchmarks
+     * measure steady state play rather than everyone falling at once.
+     * 
+     * @param manager The manager to settle
+     */
+    public static void settle(EntityManager manager) {
+        for (int i = 0; i < 100; i++) {
+            manager.moveAllObjects();
+        }
+    }
+}
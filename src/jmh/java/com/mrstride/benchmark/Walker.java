@@ -0,0 +1,34 @@
+package com.mrstride.benchmark;
+
+import com.mrstride.entity.FallingEntity;
+
+/**
+ * A FallingEntity that paces back and forth so that benchmarks exercise
+ * walking on floors and not just standing still.
+ * It turns around after walking for a set number of ticks, so it never
+ * wanders far from where it started.
+ */
+public class Walker extends FallingEntity {
+
+    private static final int SPEED = 2;
+
+    private final int ticksPerTurn;
+    private int ticks;
+    private int direction = 1;
+
+    public Walker(int x, int y, int width, int height, int ticksPerTurn) {
+        super(null, x, y, width, height, null);
+        this.ticksPerTurn = ticksPerTurn;
+    }
+
+    @Override
+    protected void updateVelocities() {
+        super.updateVelocities();
+
+        if (++ticks >= ticksPerTurn) {
+            ticks = 0;
+            direction = -direction;
+        }
+        xVelocity = SPEED * direction;
+    }
+}
@@ -7,6 +7,7 @@ import javax.swing.SwingUtilities;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
@@ -32,6 +33,10 @@ public class Main implements CommandLineRunner {
 
     @Autowired
     private DataService dataService;
+
+    // "repaint" (Swing paints) or "active" (the game loop paints)
+    @Value("${game.renderer:repaint}")
+    private String renderer;
     
     public static void main( String[] args ) {
         deleteLogs();
@@ -45,6 +50,7 @@ public class Main implements CommandLineRunner {
     @Override
     public void run(String... args) throws Exception {
         System.out.println("Hello World");
+        MainFrame.setRenderMode(renderer);
 
         // TODO: uncomment this code 
 
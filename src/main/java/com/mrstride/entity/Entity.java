@@ -5,6 +5,7 @@ import java.awt.Graphics;
 import java.awt.image.BufferedImage;
 import java.awt.Rectangle;
 import java.awt.event.KeyListener;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -17,6 +18,7 @@ import com.mrstride.gui.Line;
 import com.mrstride.services.Animation;
 import com.mrstride.services.AnimationFactory;
 import com.mrstride.services.ImageService;
+import com.mrstride.services.SpriteVariantKey;
 
 /**
  * This base Entity does not move. It does not fall. It does not collide with anything.
@@ -45,6 +47,9 @@ public class Entity  {
 
     private AnimationFactory aniFactory;
     private ImageService imageService;
+
+    // the image id pinned in the image cache while this entity is alive
+    private String pinnedId;
     protected EntityFactory entityFactory;
 
     // This will get initialized in the init() method.
@@ -70,6 +75,18 @@ public class Entity  {
     private BufferedImage spriteRight = null;
     private BufferedImage spriteLeft= null;
 
+    /**
+     * The sprite variants that spriteRight and spriteLeft are, so they can be
+     * found in a TextureAtlas. null if there are no sprites.
+     */
+    private SpriteVariantKey keyRight = null;
+    private SpriteVariantKey keyLeft = null;
+
+    /**
+     * The animation of a sprite sheet entity. null if the image is not animated.
+     */
+    private Animation animation = null;
+
     /**
      * Keep a map of extended properties for this Entity.
      */
@@ -169,6 +186,18 @@ public class Entity  {
         return boundingRect;
     }
 
+    /**
+     * Gets the area this Entity could touch during its next update().
+     * The EntityManager uses this to pick which floors and walls to pass to update().
+     * A plain Entity does not move, so this is just the bounding rectangle.
+     * Derived classes that move must override to include where they could move to.
+     *
+     * @param dest The rectangle to fill in (avoids creating one every tick)
+     */
+    public void getSweptBounds(Rectangle dest) {
+        dest.setBounds(boundingRect);
+    }
+
 
     /**
      * Allows us to hook up listeners for Entities by getting them from the Entity.
@@ -184,6 +213,13 @@ public class Entity  {
         return false;
     }
 
+    /**
+     * @return The id of the entity's image
+     */
+    public String getId() {
+        return id;
+    }
+
     public boolean isHitEntity() {
         return properties.containsKey(Entity.IS_HIT);
     }
@@ -223,33 +259,125 @@ public class Entity  {
      *                     false = use the size as already set in the constructor.
      */
     private void loadEntityImages(String id, boolean useImageSize) {
-        // TODO: Use the image service to load the BufferedImage for this Entity
+        // keep our image in the image cache for as long as we are alive.
+        // The cache holds images, so for a sprite sheet we pin the sheet's image.
+        if (id != null && imageService != null && pinnedId == null) {
+            pinnedId = imageService.isAnimated(id) ? imageService.getSpriteSheetInfo(id).imageId() : id;
+            imageService.pinImage(pinnedId);
+        }
+
+        if (id != null && imageService != null && aniFactory != null && imageService.isAnimated(id)) {
+            if (useImageSize) {
+                int[] size = imageService.getSpriteSheetInfo(id).size();
+                width = size[0];
+                height = size[1];
+            }
+            // The frames are sliced once per sheet and size, and shared by all the Animations.
+            animation = aniFactory.createAnimation(id, width, height);
+            animation.setDirection(direction);
+        } else if (id != null && imageService != null && !imageService.isAnimated(id)) {
+            try {
+                if (useImageSize) {
+                    BufferedImage image = imageService.getImage(id);
+                    width = image.getWidth();
+                    height = image.getHeight();
+                }
+
+                // The variants are shared with every other Entity that draws this
+                // image at this size, so don't draw into them.
+                spriteRight = imageService.getSpriteVariant(id, ImageService.WHOLE_IMAGE, width, height, false);
+                spriteLeft = imageService.getSpriteVariant(id, ImageService.WHOLE_IMAGE, width, height, true);
+                keyRight = new SpriteVariantKey(id, ImageService.WHOLE_IMAGE, width, height, false);
+                keyLeft = new SpriteVariantKey(id, ImageService.WHOLE_IMAGE, width, height, true);
+            } catch (IOException e) {
+                consoleLogger.error("Could not load image '{}': {}", id, e.getMessage());
+            }
+        }
 
         // assure that we have our bounding rectangle set
         boundingRect = new Rectangle(x, y, width, height);
     }
 
     /**
-     * This draws the entity into the Graphics using the provided offsets.
-     * Derived classes may override to draw as they need to.
-     * If This entity is Animated, then animation will happen using the Animation
-     * service.
+     * Called once when this Entity is removed from the game.
+     * Unpins the image so the image cache may evict it when nothing else uses it.
+     */
+    public void releaseImages() {
+        if (pinnedId != null) {
+            imageService.unpinImage(pinnedId);
+            pinnedId = null;
+        }
+    }
+
+    /**
+     * This draws the entity's current image into the Graphics using the provided offsets.
+     * 
+     * @deprecated The EntityManager paints from a snapshot taken on the physics thread,
+     * using getCurrentVariant(), getCurrentImage() and drawSprite(), and never calls
+     * this method, so overriding it changes nothing on the screen. Derived classes
+     * that want to look different should override getCurrentImage(), and
+     * getCurrentVariant() to return null.
      * 
      * @param g Graphics to draw into
      * @param xOffset subtract this from the entity's x-position
      * @param yOffset subtract this from the entity's y-position
      */
+    @Deprecated
     public void draw(Graphics g, int xOffset, int yOffset) {
-        // When Animation is added, the image will be retrieved from that Animation object.
-        if (spriteRight == null) {
+        drawSprite(g, getCurrentImage(), x - xOffset, y - yOffset, width, height);
+    }
+
+    /**
+     * Gets the image that represents this entity right now, facing the correct direction.
+     * When Animation is added, the image will be retrieved from that Animation object.
+     * 
+     * @return The image to draw, or null to draw a grey box
+     */
+    public BufferedImage getCurrentImage() {
+        if (animation != null) {
+            animation.setDirection(getDirection());
+            return animation.getCurrentFrame();
+        }
+        if (getDirection() == Animation.FACING_LEFT) {
+            return spriteLeft;
+        }
+        return spriteRight;
+    }
+
+    /**
+     * Gets the sprite variant that getCurrentImage() returns right now, so the
+     * EntityManager can draw it from the TextureAtlas instead.
+     * 
+     * @return The variant to draw, or null if the image is not a shared variant
+     */
+    public SpriteVariantKey getCurrentVariant() {
+        if (animation != null) {
+            animation.setDirection(getDirection());
+            return animation.getCurrentFrameKey();
+        }
+        if (getDirection() == Animation.FACING_LEFT) {
+            return keyLeft;
+        }
+        return keyRight;
+    }
+
+    /**
+     * Draws a sprite at a screen position. If there is no sprite then a grey box
+     * is drawn instead.
+     * 
+     * @param g Graphics to draw into
+     * @param sprite The image to draw. May be null.
+     * @param x Screen x-position
+     * @param y Screen y-position
+     * @param width Width of the grey box
+     * @param height Height of the grey box
+     */
+    public static void drawSprite(Graphics g, BufferedImage sprite, int x, int y, int width, int height) {
+        if (sprite == null) {
             g.setColor(Color.GRAY);
-            g.fillRect(x - xOffset, y - yOffset, width, height);
+            g.fillRect(x, y, width, height);
         } else {
-            BufferedImage sprite = spriteRight;
-            if (getDirection() == Animation.FACING_LEFT) {
-                sprite = spriteLeft;
-            }
-            g.drawImage(sprite, x - xOffset, y - yOffset, null);
+            g.drawImage(sprite, x, y, null);
         }
     }
 
@@ -270,6 +398,9 @@ public class Entity  {
      */
     public void setDirection(int direction) {
         this.direction = direction;
+        if (animation != null) {
+            animation.setDirection(direction);
+        }
     }
 
     /**
@@ -280,7 +411,9 @@ public class Entity  {
      *     Animation.MODE_OTHER = 6;
      */
     public void setAnimationMode(int mode) {
-        // TODO: Pass the mode to the animation object
+        if (animation != null) {
+            animation.setMode(mode);
+        }
     }
     
     public BufferedImage getSpriteLeft() {
@@ -2,11 +2,16 @@ package com.mrstride.entity;
 
 import java.awt.geom.Rectangle2D;
 import java.awt.Rectangle;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 
+import org.apache.logging.log4j.util.StringBuilderFormattable;
+import org.apache.logging.log4j.util.Unbox;
+
 import com.mrstride.gui.Line;
+import com.mrstride.services.CollisionEvent;
 
 /**
  * The MovingEntity is responsible for doing the following during **update**:  
@@ -17,6 +22,7 @@ import com.mrstride.gui.Line;
  *      - onHitCeiling
  *      - onHitFloor
  *   - Allow derived classes to update their velocities according to User Events
+ *   - Recording a CollisionEvent for Flight Recorder (off unless a recording turns it on)
  * 
  * The MovingEntity has a boundingRect and a nextBoundingRect.
  * 
@@ -50,10 +56,36 @@ import com.mrstride.gui.Line;
  * - Y increases downward (screen coordinates)
  * - Positive yVelocity = falling
  * - Negative yVelocity = jumping/rising
+ * 
+ * LOGGING:
+ * The physics log is written many times per tick per entity, so logging must not
+ * cost anything when the PhysicsFile logger is off and must not make garbage when
+ * it is on. Calls that would do any work to build their arguments are guarded with
+ * isDebugEnabled(), ints are passed with Unbox.box() instead of being boxed, and
+ * rectangles and lines write themselves into log4j's buffer (see RectText).
+ * 
+ * PHYSICS TRACE:
+ * Every entity also records its moves, hits and push-outs in a small PhysicsTrace
+ * ring buffer, all the time. It costs a few array stores per event, and is only
+ * turned into text when it is dumped: into TRACE_DIRECTORY when F9 is pressed in
+ * the game (see EntityManager.requestPhysicsTraceDump()), or automatically when
+ * onHitFloor() finds the entity moved too many times.
  */
 public class MovingEntity extends Entity {
     private static final int COYOTE_TIME = 2;
-    private static final int MOVE_ERROR_COUNT = 20;
+    static final int MOVE_ERROR_COUNT = 20;
+
+    /**
+     * Extra room around the swept bounds. Velocities are changed inside update()
+     * (gravity, jumping, walking) and floors can push the entity up by as much as
+     * MOVE_ERROR_COUNT pixels, so the lines we are given must cover that, too.
+     */
+    private static final int SWEEP_MARGIN = 32;
+
+    /**
+     * Where a physics trace is dumped when there is a physics error.
+     */
+    public static final String TRACE_DIRECTORY = "logs";
 
     protected int xVelocity;
     protected int yVelocity;
@@ -74,8 +106,37 @@ public class MovingEntity extends Entity {
 
     /**
      * The rectangle that this entity wants to move to if there are no obstacles.
+     * It is reused every tick so that moving does not create garbage.
+     */
+    private final Rectangle nextBoundingRect = new Rectangle();
+
+    /**
+     * The union of boundingRect and nextBoundingRect used when reacting to floors.
+     * Reused for every floor on every tick so that moving does not create garbage.
+     */
+    private final Rectangle2D.Double unionRect = new Rectangle2D.Double();
+
+    /**
+     * The floors, walls and ceilings hit during the current update(), for the CollisionEvent.
+     */
+    private int collisionHits;
+
+    /**
+     * Reused for every update() so that the event costs nothing when it is off,
+     * without relying on the JIT to remove the allocation. begin() starts it over.
      */
-    private Rectangle nextBoundingRect;
+    private final CollisionEvent collisionEvent = new CollisionEvent();
+
+    /**
+     * Reused to log a rectangle without making a String.
+     */
+    private final RectText rectText = new RectText();
+
+    /**
+     * The recent physics events of this entity, and the number of updates so far.
+     */
+    private final PhysicsTrace trace = new PhysicsTrace();
+    private int tick;
 
     public MovingEntity(String id, int x, int y, Map<String, Object> properties) {
         super(id, x, y, properties);
@@ -88,7 +149,7 @@ public class MovingEntity extends Entity {
     @Override
     public void init() {
         super.init();
-        physicsLogger.debug(String.format("Starting position is %s", boundingRect));
+        physicsLogger.debug("Starting position is {}", boundingRect);
     }
 
     /**
@@ -100,14 +161,26 @@ public class MovingEntity extends Entity {
      * A derived class that wants to add entities during update() would add them to
      * the thread-safe Queue provided here.
      * 
+     * The floors are walked by index rather than with an Iterator, so that an
+     * update creates no garbage. The EntityManager hands in an ArrayList.
+     * 
      * @param floors
      * @param toAdd
      * @return True to keep the item in the list of entities. False to remove it.
      */    
     @Override
     public boolean update(List<Line> floors, Queue<Entity> toAdd) {
+        collisionEvent.begin();
+        collisionHits = 0;
+        tick++;
+
         updateVelocities();
-        physicsLogger.debug("[StartMove] ({}, {}) OnFloor: {}, xVel: {}  yVel: {}", x, y, (currentFloor != null ? currentFloor : "False"), xVelocity, yVelocity); 
+        trace.record(tick, PhysicsTrace.START_MOVE, x, y, xVelocity, yVelocity);
+        if (physicsLogger.isDebugEnabled()) {
+            physicsLogger.debug("[StartMove] ({}, {}) OnFloor: {}, xVel: {}  yVel: {}",
+                    Unbox.box(x), Unbox.box(y), (currentFloor != null ? currentFloor : "False"),
+                    Unbox.box(xVelocity), Unbox.box(yVelocity));
+        }
 
         // Phase 1: Horizontal movement and collision
         boolean hitWall = false;
@@ -154,22 +227,74 @@ public class MovingEntity extends Entity {
 
         // our nextBoundingRect is where we want to move to
         move();
-
+        trace.record(tick, PhysicsTrace.END_MOVE, x, y, xVelocity, yVelocity);
+
+        collisionEvent.end();
+        if (collisionEvent.shouldCommit()) {
+            collisionEvent.entityId = getId();
+            collisionEvent.linesTested = floors.size();
+            collisionEvent.hits = collisionHits;
+            collisionEvent.commit();
+        }
         return true;
     }
 
+    /**
+     * The swept bounds cover where we are now and everywhere the current velocities
+     * could take us this tick, plus a margin for velocity changes made during update().
+     *
+     * @param dest The rectangle to fill in
+     */
+    @Override
+    public void getSweptBounds(Rectangle dest) {
+        int dx = Math.abs(xVelocity) + SWEEP_MARGIN;
+        int dy = Math.abs(yVelocity) + SWEEP_MARGIN;
+        dest.setBounds(boundingRect.x - dx, boundingRect.y - dy,
+                boundingRect.width + 2 * dx, boundingRect.height + 2 * dy);
+    }
+
+    /**
+     * @return The recent physics events of this entity
+     */
+    public PhysicsTrace getPhysicsTrace() {
+        return trace;
+    }
+
+    private void recordHit(int type, Line line) {
+        trace.record(tick, type, (int) line.x1, (int) line.y1, (int) line.x2, (int) line.y2);
+    }
+
+    /**
+     * Writes the physics trace to a file so the moves that led up to an error can
+     * be seen. Only the first PhysicsTrace.MAX_ERROR_DUMPS errors are dumped.
+     *
+     * @param reason What went wrong
+     */
+    private void dumpTraceForError(String reason) {
+        String name = (getId() != null) ? getId() : "entity";
+        Path file = trace.dumpForError(Path.of(TRACE_DIRECTORY), name, reason);
+        if (file != null) {
+            physicsLogger.error(" Physics trace written to {}", file);
+        }
+    }
+
     /**
      * All collision detection and reactions to obstacles have already been done.
      * Now, the current MovingEntity is allowed to move to the proposed location
      * that is determined by the nextBoundingRect.
+     * 
+     * The boundingRect is updated in place. Painting reads a snapshot instead
+     * of the boundingRect, so the GUI thread never sees it change.
      */
     private void move() {
         // we should have already have had our next bounding rect checked and adjusted
         // Just move to our nextBoundingRect.
-        boundingRect = new Rectangle(nextBoundingRect);
+        boundingRect.setBounds(nextBoundingRect);
         x = boundingRect.x;
         y = boundingRect.y;
-        physicsLogger.debug(String.format("Moving to %s", boundingRect));
+        if (physicsLogger.isDebugEnabled()) {
+            physicsLogger.debug("Moving to {}", rectText.of(boundingRect));
+        }
     }
 
     /**
@@ -181,7 +306,8 @@ public class MovingEntity extends Entity {
     private boolean checkCeilings(List<Line> lines) {
         if (yVelocity < 0) {
             // we are moving up, jumping or flying. Check Ceilings
-            for (Line line : lines) {
+            for (int i = 0; i < lines.size(); i++) {
+                Line line = lines.get(i);
                 // don't hit the floor we are standing on
                 if (line == currentFloor) {
                     continue;
@@ -214,14 +340,17 @@ public class MovingEntity extends Entity {
         // we're not over/under a known floor
         this.currentFloor = null;
 
-        for (Line floor : floors) {
+        for (int i = 0; i < floors.size(); i++) {
             // We check all floors regardless because we might have floors making a V shape
-            reactToFloor(floor);
+            reactToFloor(floors.get(i));
         }
 
         if (this.currentFloor == null && canJump) {
             timeOffFloor++;
-            physicsLogger.debug("Increment timeOffFloor {} (canJump set, but no current floor)", timeOffFloor);
+            if (physicsLogger.isDebugEnabled()) {
+                physicsLogger.debug("Increment timeOffFloor {} (canJump set, but no current floor)",
+                        Unbox.box(timeOffFloor));
+            }
         }
 
         return (currentFloor != null);
@@ -235,10 +364,14 @@ public class MovingEntity extends Entity {
      * @return true if we hit and reacted to a wall
      */
     private boolean checkWalls(List<Line> walls) {
-        physicsLogger.debug("Checking Walls. Cur Floor: {}  Cur Rect: {}", (currentFloor != null), boundingRect);
+        if (physicsLogger.isDebugEnabled()) {
+            physicsLogger.debug("Checking Walls. Cur Floor: {}  Cur Rect: {}", (currentFloor != null),
+                    rectText.of(boundingRect));
+        }
 
         boolean hitWall = false;
-        for (Line wall : walls) {
+        for (int i = 0; i < walls.size(); i++) {
+            Line wall = walls.get(i);
             if (wall == currentFloor) {
                 // if we are on a floor, don't treat it like a wall
                 continue;
@@ -267,7 +400,7 @@ public class MovingEntity extends Entity {
     private void calcNextBoundingRectX() {
         // Gets the Bounding HitBox for where the entity wants to move to next.
         int newX = (int) (x + xVelocity);
-        nextBoundingRect = new Rectangle(newX, y, boundingRect.width, boundingRect.height);
+        nextBoundingRect.setBounds(newX, y, boundingRect.width, boundingRect.height);
     }
 
     /**
@@ -278,7 +411,7 @@ public class MovingEntity extends Entity {
     private void calcNextBoundingRectY() {
         // Gets the Bounding HitBox for where the entity wants to move to next.
         int newY = (int) (nextBoundingRect.y + yVelocity);
-        nextBoundingRect = new Rectangle(nextBoundingRect.x, newY, boundingRect.width, boundingRect.height);
+        nextBoundingRect.setBounds(nextBoundingRect.x, newY, boundingRect.width, boundingRect.height);
     }
 
     /**
@@ -291,14 +424,40 @@ public class MovingEntity extends Entity {
     }
 
     /**
-     * Helper to create a preferred display for a Rectangle2D.
+     * Logs a rectangle in our preferred display, "x0:%d y0:%d x1:%d y2:%d", by
+     * appending it straight into log4j's buffer. Nothing is allocated, so it can
+     * be used on every tick.
      * 
-     * @param rect the rectangle to display
-     * @return display string
+     * Log4j formats the message before the log call returns (even with async
+     * loggers), so one RectText can be reused for every call. It is not shared
+     * between entities because entities may update on different threads.
      */
-    private static String rectString(Rectangle2D rect) {
-        return String.format("x0:%d y0:%d x1:%d y2:%d",
-                (int) rect.getX(), (int) rect.getY(), (int) rect.getMaxX(), (int) rect.getMaxY());
+    private static final class RectText implements StringBuilderFormattable {
+        private Rectangle2D rect;
+
+        /**
+         * @param rect The rectangle to log next
+         * @return this, to pass to the logger
+         */
+        RectText of(Rectangle2D rect) {
+            this.rect = rect;
+            return this;
+        }
+
+        @Override
+        public void formatTo(StringBuilder buffer) {
+            buffer.append("x0:").append((int) rect.getX())
+                  .append(" y0:").append((int) rect.getY())
+                  .append(" x1:").append((int) rect.getMaxX())
+                  .append(" y2:").append((int) rect.getMaxY());
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(48);
+            formatTo(sb);
+            return sb.toString();
+        }
     }
 
     /**
@@ -311,7 +470,7 @@ public class MovingEntity extends Entity {
         // see if we are horizontally above/below the floor line
         if (yVelocity >= 0 && overUnderLine(floor)) {
 
-            Rectangle2D.Double rect = Line.getUnionRect(boundingRect, nextBoundingRect);
+            Rectangle2D.Double rect = Line.getUnionRect(boundingRect, nextBoundingRect, unionRect);
             // BEWARE: not always on floor so we can't jump, so add +1 to the height of
             // bounding rect.
             // This also prevents us from restoring entity to above floor when walking
@@ -319,6 +478,8 @@ public class MovingEntity extends Entity {
             rect.height++;
             boolean hit = floor.intersectsRect(rect);
             if (hit) {
+                collisionHits++;
+                recordHit(PhysicsTrace.HIT_FLOOR, floor);
                 // notify any derived classes
                 onHitFloor(floor, rect);
             }
@@ -334,24 +495,25 @@ public class MovingEntity extends Entity {
      * Derived classes may want to do more or less
      * 
      * @param floor The floor we hit
-     * @param rect The Union rectangle of boundingRect and nextBoundingRect
+     * @param rect The Union rectangle of boundingRect and nextBoundingRect.
+     *             It is reused for every floor, so don't keep a reference to it.
      */
     protected void onHitFloor(Line floor, Rectangle2D.Double rect) {
-        int moves = 0;
-        physicsLogger.debug("  Hit floor! Union: {} floor {}", rectString(rect), floor);
+        if (physicsLogger.isDebugEnabled()) {
+            physicsLogger.debug("  Hit floor! Union: {} floor {}", rectText.of(rect), floor);
+        }
         // boost the entity to be above the floor
-        do {
-            physicsLogger.debug("    pushing up 1");
-            // push the rectangle up until it doesn't hit anymore
-            rect.y -= 1;
-
-            if (++moves > MOVE_ERROR_COUNT) {
-                physicsLogger.error(" Hit floor error. Moved too many times.");
-                break;
-            }
-        } while (floor.intersectsRect(rect));
+        int moves = pushUpDistance(floor, rect);
+        if (moves > MOVE_ERROR_COUNT) {
+            physicsLogger.error(" Hit floor error. Moved too many times.");
+            dumpTraceForError("Hit floor error. Moved too many times. Floor: " + floor);
+        }
+        if (physicsLogger.isDebugEnabled()) {
+            physicsLogger.debug("    pushing up {}", Unbox.box(moves));
+        }
+        rect.y -= moves;
 
-        if (isWalkableSlope(floor, 45)) {
+        if (floor.isWalkable()) {
             physicsLogger.debug("  Setting currentFloor = {}", floor);
             canJump = true;
             timeOffFloor = 0;
@@ -366,26 +528,47 @@ public class MovingEntity extends Entity {
 
         // move the entity to be on this floor at floorY
         nextBoundingRect.y = (int) (rect.y + rect.height) - nextBoundingRect.height;
-        physicsLogger.debug("    Pushed to: {} floor {}", rectString(nextBoundingRect), floor);
+        trace.record(tick, PhysicsTrace.PUSH_OUT, moves, nextBoundingRect.y, 0, 0);
+        if (physicsLogger.isDebugEnabled()) {
+            physicsLogger.debug("    Pushed to: {} floor {}", rectText.of(nextBoundingRect), floor);
+        }
     }
 
     /**
-     * Determines if a line is walkable based on its slope angle.
-     * Vertical walls (90°) and steep slopes are not walkable.
+     * Calculates how many pixels the rectangle must move up so that it no longer
+     * intersects the floor. This gives the same answer as pushing the rectangle
+     * up 1 pixel at a time, but without testing for an intersection each time.
      * 
-     * @param line The line to check
-     * @param maxWalkableAngle Maximum walkable angle in degrees (typically 45-50)
-     * @return true if the slope can be walked on
+     * The bottom of the rectangle needs to be just above the highest point of the
+     * floor under the rectangle. Rounding in the line math can differ slightly from
+     * intersectsRect(), so the estimate is checked and nudged by a pixel if needed.
+     * 
+     * @param floor The floor the rectangle hit
+     * @param rect The rectangle to push up. It must intersect the floor, and it is left unchanged.
+     * @return At least 1, and at most MOVE_ERROR_COUNT + 1 when the floor is too far
      */
-    private boolean isWalkableSlope(Line line, double maxWalkableAngle) {
-        double dx = line.x2 - line.x1;
-        double dy = line.y2 - line.y1;
-        
-        // Calculate angle from horizontal (in degrees)
-        double angleRadians = Math.atan2(Math.abs(dy), Math.abs(dx));
-        double angleDegrees = Math.toDegrees(angleRadians);
-        
-        return angleDegrees <= maxWalkableAngle;
+    static int pushUpDistance(Line floor, Rectangle2D.Double rect) {
+        double y = rect.y;
+        double top = floor.minYOver(rect.x, rect.x + rect.width);
+        int estimate = (int) Math.floor(y + rect.height - top) + 1;
+        int moves = Math.max(1, Math.min(MOVE_ERROR_COUNT + 1, estimate));
+
+        // make sure that one less move would still hit...
+        while (moves > 1 && !intersectsAt(floor, rect, y - (moves - 1))) {
+            moves--;
+        }
+        // ...and that this many moves does not
+        while (moves <= MOVE_ERROR_COUNT && intersectsAt(floor, rect, y - moves)) {
+            moves++;
+        }
+
+        rect.y = y;
+        return moves;
+    }
+
+    private static boolean intersectsAt(Line line, Rectangle2D.Double rect, double y) {
+        rect.y = y;
+        return line.intersectsRect(rect);
     }
 
     /**
@@ -399,8 +582,8 @@ public class MovingEntity extends Entity {
         int x1 = nextBoundingRect.x;
         int x2 = nextBoundingRect.x + nextBoundingRect.width;
 
-        int bMin = (int) Math.min(line.x1, line.x2);
-        int bMax = (int) Math.max(line.x1, line.x2);
+        int bMin = (int) line.getMinX();
+        int bMax = (int) line.getMaxX();
         return (x2 >= bMin) && (bMax >= x1);
     }
 
@@ -417,9 +600,11 @@ public class MovingEntity extends Entity {
         
         boolean hit = wall.intersectsRect(nextBoundingRect);
         if (hit) {
+            collisionHits++;
+            recordHit(PhysicsTrace.HIT_WALL, wall);
             onHitWall(wall);
-        } else {
-            physicsLogger.debug("   No Wall: Next: {}  wall {}", rectString(nextBoundingRect), wall);
+        } else if (physicsLogger.isDebugEnabled()) {
+            physicsLogger.debug("   No Wall: Next: {}  wall {}", rectText.of(nextBoundingRect), wall);
         }
         return hit;
     }
@@ -441,6 +626,8 @@ public class MovingEntity extends Entity {
             // the floor we are jumping off of. This Line should not be the currentFloor.
             boolean hit = line.intersectsRect(nextBoundingRect);
             if (hit) {
+                collisionHits++;
+                recordHit(PhysicsTrace.HIT_CEILING, line);
                 onHitCeiling(line);
             }
             // stop looking if we hit a ceiling
@@ -466,6 +653,9 @@ public class MovingEntity extends Entity {
      *       move away from the wall
      *       change union rect and nextBoundingRect
      * 
+     * Rather than moving 1 pixel at a time, calculate the distance directly like
+     * onHitFloor() does (see pushUpDistance) and then check it with intersectsRect().
+     * 
      * Don't forget to log to physicsLogger.debug() for debugging purposes.
      * 
      * @param wall The wall the Entity hit.
@@ -484,6 +674,9 @@ public class MovingEntity extends Entity {
      *       change union rect and nextBoundingRect
      *   update yVelocity
      * 
+     * Rather than moving 1 pixel at a time, use line.maxYOver() to find the bottom
+     * of the ceiling over the entity and move just below it, like onHitFloor() does.
+     * 
      * Don't forget to log to physicsLogger.debug() for debugging purposes.
      * 
      * @param line The ceiling we hit
@@ -0,0 +1,171 @@
+package com.mrstride.entity;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * The most recent physics events of one entity, kept in a fixed-size ring buffer.
+ *
+ * This is the always-on alternative to turning on the PhysicsFile debug log.
+ * Recording an event is a few int stores into an array that was allocated with
+ * the entity. Nothing is formatted and nothing is written to disk, so it can run
+ * all the time without changing the timing being investigated. The buffer is
+ * decoded into text only when it is dumped.
+ *
+ * Each event is STRIDE ints: the entity's tick, the event type and up to four
+ * values whose meaning depends on the type:
+ *   START_MOVE  x, y, xVelocity, yVelocity   before moving
+ *   END_MOVE    x, y, xVelocity, yVelocity   after moving
+ *   HIT_WALL    x1, y1, x2, y2               the line that was hit
+ *   HIT_FLOOR   x1, y1, x2, y2
+ *   HIT_CEILING x1, y1, x2, y2
+ *   PUSH_OUT    pixels, new y                pushed up out of a floor
+ *
+ * Only the thread updating the entity records into its trace, so a trace must be
+ * dumped on that thread too (EntityManager.requestPhysicsTraceDump() does this).
+ */
+public class PhysicsTrace {
+    private static final Logger physicsLogger = LogManager.getLogger("PhysicsFile");
+
+    /**
+     * Events kept per entity. A tick is usually 2 to 5 events, so this is the
+     * last dozen or more ticks. 64 events are 1.5 KB per entity.
+     * Must be a power of two.
+     */
+    public static final int CAPACITY = 64;
+
+    /**
+     * The most trace files written because of physics errors in one run, so a
+     * glitch that repeats every tick does not fill the disk.
+     */
+    public static final int MAX_ERROR_DUMPS = 10;
+
+    public static final int START_MOVE = 0;
+    public static final int END_MOVE = 1;
+    public static final int HIT_WALL = 2;
+    public static final int HIT_FLOOR = 3;
+    public static final int HIT_CEILING = 4;
+    public static final int PUSH_OUT = 5;
+
+    private static final String[] NAMES = {
+        "START_MOVE", "END_MOVE", "HIT_WALL", "HIT_FLOOR", "HIT_CEILING", "PUSH_OUT"
+    };
+
+    private static final int STRIDE = 6;
+
+    private static final AtomicInteger errorDumps = new AtomicInteger();
+
+    private final int[] events = new int[CAPACITY * STRIDE];
+
+    // the number of events ever recorded. The next one goes at written % CAPACITY.
+    private long written;
+    private int next;
+
+    /**
+     * Records an event, overwriting the oldest one if the buffer is full.
+     *
+     * @param tick The entity's tick
+     * @param type One of the event types
+     * @param a First value
+     * @param b Second value
+     * @param c Third value
+     * @param d Fourth value
+     */
+    public void record(int tick, int type, int a, int b, int c, int d) {
+        int i = next * STRIDE;
+        events[i] = tick;
+        events[i + 1] = type;
+        events[i + 2] = a;
+        events[i + 3] = b;
+        events[i + 4] = c;
+        events[i + 5] = d;
+        next = (next + 1) & (CAPACITY - 1);
+        written++;
+    }
+
+    /**
+     * @return The number of events ever recorded (not just the ones still kept)
+     */
+    public long getRecordedCount() {
+        return written;
+    }
+
+    /**
+     * Writes the kept events, oldest first, one per line.
+     *
+     * @param out Where to write
+     * @param title A heading for the trace, e.g. the entity
+     * @throws IOException if writing fails
+     */
+    public void dump(Writer out, String title) throws IOException {
+        long end = written;
+        long start = Math.max(0, end - CAPACITY);
+        out.write("=== " + title + " (" + (end - start) + " of " + end + " events) ===\n");
+        StringBuilder sb = new StringBuilder(64);
+        for (long n = start; n < end; n++) {
+            int i = (int) (n % CAPACITY) * STRIDE;
+            sb.setLength(0);
+            decode(sb, events[i], events[i + 1], events[i + 2], events[i + 3], events[i + 4], events[i + 5]);
+            out.write(sb.append('\n').toString());
+        }
+    }
+
+    /**
+     * Dumps the trace to its own file because of a physics error. Does nothing
+     * once MAX_ERROR_DUMPS files have been written in this run.
+     *
+     * @param directory Where to put the file. Created if needed.
+     * @param name Used in the file name and title, e.g. the entity's id
+     * @param reason What went wrong
+     * @return The file, or null if no file was written
+     */
+    public Path dumpForError(Path directory, String name, String reason) {
+        int dumps = errorDumps.incrementAndGet();
+        if (dumps > MAX_ERROR_DUMPS) {
+            return null;
+        }
+
+        Path file = directory.resolve("physics-trace-" + name + "-" + dumps + ".txt");
+        try {
+            Files.createDirectories(directory);
+            try (Writer out = Files.newBufferedWriter(file)) {
+                out.write(reason + "\n");
+                dump(out, name);
+            }
+            return file;
+        } catch (IOException e) {
+            physicsLogger.error("Could not write physics trace {}: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    private static void decode(StringBuilder sb, int tick, int type, int a, int b, int c, int d) {
+        sb.append("tick ").append(tick).append("  ");
+        sb.append((type >= 0 && type < NAMES.length) ? NAMES[type] : "UNKNOWN(" + type + ")");
+        switch (type) {
+            case START_MOVE:
+            case END_MOVE:
+                sb.append("  (").append(a).append(", ").append(b)
+                  .append(") xVel: ").append(c).append(" yVel: ").append(d);
+                break;
+            case HIT_WALL:
+            case HIT_FLOOR:
+            case HIT_CEILING:
+                sb.append("  (").append(a).append(", ").append(b)
+                  .append(") - (").append(c).append(", ").append(d).append(')');
+                break;
+            case PUSH_OUT:
+                sb.append("  up ").append(a).append(" to y: ").append(b);
+                break;
+            default:
+                sb.append("  ").append(a).append(' ').append(b).append(' ').append(c).append(' ').append(d);
+                break;
+        }
+    }
+}
@@ -2,43 +2,286 @@ package com.mrstride.gui;
 
 import javax.swing.JPanel;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.util.Unbox;
+
+import com.mrstride.services.GameMetrics;
+import com.mrstride.services.TickEvent;
+import com.mrstride.services.TickOverrunEvent;
+
+import java.awt.AWTException;
+import java.awt.BorderLayout;
+import java.awt.BufferCapabilities;
+import java.awt.Canvas;
 import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.ImageCapabilities;
+import java.awt.Toolkit;
+import java.awt.event.KeyListener;
+import java.awt.image.BufferStrategy;
 import java.util.Timer;
 
+/**
+ * A JPanel with its own thread that calls update() (physics) and repaint().
+ *
+ * There are two ways the thread can be scheduled:
+ *
+ * LOOP_SLEEP: update(), repaint(), then sleep PHYSICS_DELAY. The real tick period
+ *   is PHYSICS_DELAY plus however long update() took plus sleep jitter, so the
+ *   game slows down when the machine is busy.
+ *
+ * LOOP_FIXED_TIMESTEP: update() is called once for every PHYSICS_DELAY of real time
+ *   that has passed, measured with System.nanoTime(). If we fall behind, up to
+ *   MAX_CATCH_UP_TICKS updates are run back to back to catch up, and any ticks
+ *   beyond that are dropped. Repainting happens at RENDER_FPS, separately from
+ *   the physics rate. Late and dropped ticks are counted and logged as overruns.
+ *
+ * There are also two ways a frame can be drawn:
+ *
+ * RENDER_REPAINT: the thread calls repaint() and Swing calls paintComponent() later
+ *   on the EDT. The RepaintManager may merge or delay the requests.
+ *
+ * RENDER_ACTIVE: the thread draws the frame itself, right away, into a Canvas with a
+ *   BufferStrategy (page flipping when the graphics card supports it), and shows it.
+ *   Lost video memory is detected and the frame is drawn again. Derived classes
+ *   draw in paintFrame(), which is used by both modes.
+ *
+ * While running, the tick jitter is recorded in GameMetrics and its summary is
+ * logged every GameMetrics.DEFAULT_DUMP_SECONDS. Every tick and overrun is also
+ * a Flight Recorder event (TickEvent, TickOverrunEvent).
+ */
 public abstract class AnimationPanel extends JPanel {
 
 	public static final int PHYSICS_DELAY = 10;
 
+    public static final int LOOP_SLEEP = 0;
+    public static final int LOOP_FIXED_TIMESTEP = 1;
+
+    public static final int RENDER_REPAINT = 0;
+    public static final int RENDER_ACTIVE = 1;
+
+    /**
+     * The most updates that will be run back to back to catch up.
+     */
+    public static final int MAX_CATCH_UP_TICKS = 5;
+
+    /**
+     * How often to repaint in LOOP_FIXED_TIMESTEP mode.
+     */
+    public static final int RENDER_FPS = 60;
+
+    private static final long NANOS_PER_MILLI = 1_000_000L;
+
     private Thread sleepThread;
 	private Timer paintTimer;
 
     private volatile boolean done = false;
+    private volatile int loopMode = LOOP_SLEEP;
+    private volatile int renderMode = RENDER_REPAINT;
+
+    // used only when renderMode is RENDER_ACTIVE
+    private volatile Canvas canvas;
+    private BufferStrategy strategy;
+
+    // overrun statistics for the fixed timestep loop
+    private volatile long lateTicks;
+    private volatile long droppedTicks;
+
+    // when the last update() started, for the tick jitter metric. Only used by the animation thread.
+    private long lastUpdateStart;
+
+    // Reused for every update() so a tick creates no garbage, even while recording.
+    // Only used by the animation thread. begin() starts it over.
+    private final TickEvent tickEvent = new TickEvent();
 
-    public AnimationPanel() {        
+    private final GameMetrics metrics = GameMetrics.getInstance();
+    private Logger perfLogger;
+
+    public AnimationPanel() {
         this.setBackground(Color.WHITE);
+        this.perfLogger = LogManager.getLogger("PerformanceFile");
     }
 
     public abstract void update();
 
+    /**
+     * Choose how the animation thread is scheduled. Takes effect on the next start().
+     *
+     * @param loopMode LOOP_SLEEP or LOOP_FIXED_TIMESTEP
+     */
+    public void setLoopMode(int loopMode) {
+        this.loopMode = loopMode;
+    }
+
+    public int getLoopMode() {
+        return loopMode;
+    }
+
+    /**
+     * Choose how frames are drawn. Takes effect on the next start().
+     *
+     * @param renderMode RENDER_REPAINT or RENDER_ACTIVE
+     */
+    public void setRenderMode(int renderMode) {
+        this.renderMode = renderMode;
+    }
+
+    public int getRenderMode() {
+        return renderMode;
+    }
+
+    /**
+     * @return true if the animation thread is drawing the frames itself.
+     *     paintComponent() must not draw the frame then, or two threads would draw at once.
+     */
+    public boolean isActiveRendering() {
+        return canvas != null;
+    }
+
+    /**
+     * Draw one frame. Called by paintComponent() (RENDER_REPAINT) or by the
+     * animation thread (RENDER_ACTIVE), never by both.
+     *
+     * @param g Graphics to draw into. The background is already cleared.
+     * @param width The width of the drawing area
+     * @param height The height of the drawing area
+     */
+    protected void paintFrame(Graphics g, int width, int height) {
+    }
+
+    /**
+     * @return The number of updates that ran late because we were catching up
+     */
+    public long getLateTicks() {
+        return lateTicks;
+    }
+
+    /**
+     * @return The number of updates that were skipped because we were too far behind
+     */
+    public long getDroppedTicks() {
+        return droppedTicks;
+    }
+
     public void start() {
         done = false;
+        lastUpdateStart = 0;
+        metrics.startPeriodicDump(GameMetrics.DEFAULT_DUMP_SECONDS);
+        if (renderMode == RENDER_ACTIVE && canvas == null) {
+            addCanvas();
+        }
 
         // create a thread that sleeps between calling update/paint.
-        this.sleepThread = new Thread(() -> {
-            try {
-                while (!done) {
-                    update();
-                    repaint();
-                    Thread.sleep(AnimationPanel.PHYSICS_DELAY);
-                }
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }    
-        });
+        if (loopMode == LOOP_FIXED_TIMESTEP) {
+            this.sleepThread = new Thread(this::runFixedTimestep);
+        } else {
+            this.sleepThread = new Thread(this::runSleep);
+        }
         this.sleepThread.start();
     }
 
+    private void runSleep() {
+        try {
+            while (!done) {
+                timedUpdate(false);
+                render();
+                Thread.sleep(AnimationPanel.PHYSICS_DELAY);
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * The fixed timestep loop. Real time is added to an accumulator and an
+     * update() is run for every PHYSICS_DELAY in the accumulator (see FixedTimestep).
+     */
+    private void runFixedTimestep() {
+        final long tickNanos = PHYSICS_DELAY * NANOS_PER_MILLI;
+        final long renderNanos = 1_000_000_000L / RENDER_FPS;
+        FixedTimestep step = new FixedTimestep(tickNanos, MAX_CATCH_UP_TICKS);
+
+        long previous = System.nanoTime();
+        long nextRender = previous;
+
+        try {
+            while (!done) {
+                long now = System.nanoTime();
+                step.advance(now - previous);
+                previous = now;
+
+                int ticks = step.getUpdates();
+                for (int i = 0; i < ticks; i++) {
+                    timedUpdate(i > 0);
+                }
+                long dropped = step.getDropped();
+                if (dropped > 0) {
+                    droppedTicks += dropped;
+                }
+                if (ticks > 1) {
+                    lateTicks += ticks - 1;
+                    if (perfLogger.isInfoEnabled()) {
+                        perfLogger.info("Tick overrun: ran {} updates to catch up. Late: {} Dropped: {}",
+                                Unbox.box(ticks), Unbox.box(lateTicks), Unbox.box(droppedTicks));
+                    }
+                    TickOverrunEvent overrun = new TickOverrunEvent();
+                    if (overrun.shouldCommit()) {
+                        overrun.updates = ticks;
+                        overrun.dropped = dropped;
+                        overrun.totalLate = lateTicks;
+                        overrun.totalDropped = droppedTicks;
+                        overrun.commit();
+                    }
+                }
+
+                now = System.nanoTime();
+                if (now >= nextRender) {
+                    render();
+                    nextRender += renderNanos;
+                    if (nextRender < now) {
+                        // we missed whole frames. Don't try to paint them all.
+                        nextRender = now + renderNanos;
+                    }
+                }
+
+                // sleep until the next update or repaint is due
+                long nextTick = previous + (tickNanos - step.getAccumulator());
+                long sleepNanos = Math.min(nextTick, nextRender) - now;
+                if (sleepNanos > 0) {
+                    Thread.sleep(sleepNanos / NANOS_PER_MILLI, (int) (sleepNanos % NANOS_PER_MILLI));
+                }
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Calls update() and records how far the time since the previous update()
+     * was from PHYSICS_DELAY in the tick jitter metric. The update is also
+     * recorded as a TickEvent for Flight Recorder.
+     *
+     * @param catchingUp true if this update is run back to back to catch up
+     */
+    private void timedUpdate(boolean catchingUp) {
+        long now = System.nanoTime();
+        if (lastUpdateStart != 0) {
+            metrics.getTickJitter().record(Math.abs(now - lastUpdateStart - PHYSICS_DELAY * NANOS_PER_MILLI));
+        }
+        lastUpdateStart = now;
+
+        tickEvent.begin();
+        update();
+        tickEvent.end();
+        if (tickEvent.shouldCommit()) {
+            tickEvent.catchingUp = catchingUp;
+            tickEvent.commit();
+        }
+    }
+
     public void stop() {
+        metrics.stopPeriodicDump();
         if (paintTimer != null) {
             paintTimer.cancel();
             paintTimer = null;
@@ -51,5 +294,112 @@ public abstract class AnimationPanel extends JPanel {
                 e.printStackTrace();
             }
         }
+        if (canvas != null) {
+            removeCanvas();
+        }
+    }
+
+    /**
+     * Show the frame: ask Swing to paint it, or draw it now.
+     */
+    private void render() {
+        if (canvas == null) {
+            repaint();
+        } else {
+            renderActive();
+        }
+    }
+
+    /**
+     * Draw the frame on this thread into the Canvas's BufferStrategy.
+     * The loops follow the BufferStrategy documentation: draw again if the
+     * buffer was restored while drawing, and show again if it was lost.
+     */
+    private void renderActive() {
+        if (strategy == null) {
+            if (!canvas.isDisplayable() || canvas.getWidth() == 0) {
+                // not on screen yet
+                return;
+            }
+            createStrategy();
+        }
+
+        do {
+            do {
+                Graphics g = strategy.getDrawGraphics();
+                try {
+                    g.setColor(getBackground());
+                    g.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
+                    paintFrame(g, canvas.getWidth(), canvas.getHeight());
+                } finally {
+                    g.dispose();
+                }
+            } while (strategy.contentsRestored());
+            strategy.show();
+        } while (strategy.contentsLost());
+
+        // some platforms buffer drawing commands. Send them now so frames are evenly paced.
+        Toolkit.getDefaultToolkit().sync();
+    }
+
+    private void createStrategy() {
+        try {
+            // page flipping, if the graphics card can do it
+            BufferCapabilities flipping = new BufferCapabilities(
+                    new ImageCapabilities(true), new ImageCapabilities(true),
+                    BufferCapabilities.FlipContents.UNDEFINED);
+            canvas.createBufferStrategy(2, flipping);
+        } catch (AWTException e) {
+            // let AWT pick the best it has (usually an accelerated back buffer that is copied)
+            canvas.createBufferStrategy(2);
+        }
+        strategy = canvas.getBufferStrategy();
+        perfLogger.info("Active rendering with {}", strategy.getCapabilities().isPageFlipping()
+                ? "page flipping" : "a copied back buffer");
+    }
+
+    /**
+     * Cover this panel with a Canvas to draw into. The Canvas gets the keyboard
+     * focus, so the key listeners added to this panel are added to it too.
+     */
+    private void addCanvas() {
+        canvas = new Canvas();
+        canvas.setIgnoreRepaint(true);
+        canvas.setBackground(getBackground());
+        for (KeyListener listener : getKeyListeners()) {
+            canvas.addKeyListener(listener);
+        }
+        setIgnoreRepaint(true);
+        setLayout(new BorderLayout());
+        add(canvas, BorderLayout.CENTER);
+        validate();
+        canvas.requestFocus();
+    }
+
+    @Override
+    public synchronized void addKeyListener(KeyListener listener) {
+        super.addKeyListener(listener);
+        if (canvas != null) {
+            canvas.addKeyListener(listener);
+        }
+    }
+
+    @Override
+    public synchronized void removeKeyListener(KeyListener listener) {
+        super.removeKeyListener(listener);
+        if (canvas != null) {
+            canvas.removeKeyListener(listener);
+        }
+    }
+
+    private void removeCanvas() {
+        if (strategy != null) {
+            strategy.dispose();
+            strategy = null;
+        }
+        remove(canvas);
+        canvas = null;
+        setIgnoreRepaint(false);
+        validate();
     }
 }
@@ -0,0 +1,70 @@
+package com.mrstride.gui;
+
+/**
+ * The arithmetic of the fixed timestep loop in AnimationPanel, without the clock.
+ *
+ * Real time is added to an accumulator by advance(). Every whole tick in the
+ * accumulator is an update to run, up to maxCatchUp of them. Whole ticks beyond
+ * that are dropped. What is left is less than a tick and carries into the next
+ * advance(), so the timing stays even.
+ *
+ * Only used by one thread. advance() creates no garbage.
+ */
+class FixedTimestep {
+
+    private final long tickNanos;
+    private final int maxCatchUp;
+
+    private long accumulator;
+    private int updates;
+    private long dropped;
+
+    /**
+     * @param tickNanos How much real time one update() stands for
+     * @param maxCatchUp The most updates to run for one advance()
+     */
+    FixedTimestep(long tickNanos, int maxCatchUp) {
+        this.tickNanos = tickNanos;
+        this.maxCatchUp = maxCatchUp;
+    }
+
+    /**
+     * Adds the real time that passed and works out how many updates to run for it.
+     *
+     * @param elapsedNanos The time since the previous advance()
+     */
+    void advance(long elapsedNanos) {
+        accumulator += elapsedNanos;
+        updates = (int) Math.min(accumulator / tickNanos, maxCatchUp);
+        accumulator -= updates * tickNanos;
+
+        dropped = 0;
+        if (accumulator >= tickNanos) {
+            // We are too far behind to catch up. Drop the rest of the ticks
+            // but keep the fraction of a tick.
+            dropped = accumulator / tickNanos;
+            accumulator -= dropped * tickNanos;
+        }
+    }
+
+    /**
+     * @return The number of updates to run for the last advance()
+     */
+    int getUpdates() {
+        return updates;
+    }
+
+    /**
+     * @return The number of ticks the last advance() dropped
+     */
+    long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * @return The time left over, less than one tick
+     */
+    long getAccumulator() {
+        return accumulator;
+    }
+}
@@ -1,11 +1,17 @@
 package com.mrstride.gui;
 
-import com.mrstride.entity.Hero;
+import com.mrstride.entity.MovingEntity;
+import com.mrstride.services.Animation;
+import com.mrstride.services.AnimationFactory;
 import com.mrstride.services.DataService;
 import com.mrstride.services.EntityManager;
+import com.mrstride.services.GameMetrics;
 
 import java.awt.Graphics;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
 import java.io.FileNotFoundException;
+import java.nio.file.Path;
 
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
@@ -15,15 +21,40 @@ public class GamePanel extends AnimationPanel {
     private DataService dataService;
     
     private EntityManager entityManager;
+    private Animation tickTracker = AnimationFactory.getTickTracker();
     private Logger actionsLogger;
-    private Logger perfLogger;
+    private final GameMetrics metrics = GameMetrics.getInstance();
 
     public GamePanel() {
         // TODO: Use Dependency Injection to get the dataService
 
         this.actionsLogger = LogManager.getLogger("UserActionFile");
-        this.perfLogger = LogManager.getLogger("PerformanceFile");
+
+        // keep the game running at the same speed even when the machine is busy
+        setLoopMode(AnimationPanel.LOOP_FIXED_TIMESTEP);
         restart();
+
+        // F9 dumps the recent physics of every entity, for bug reports.
+        // This is added once here because restart() adds the entities' listeners again.
+        addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                if (e.getKeyCode() == KeyEvent.VK_F9) {
+                    dumpPhysicsTraces();
+                }
+            }
+        });
+    }
+
+    /**
+     * Asks the physics thread to write every entity's PhysicsTrace to a new file
+     * in MovingEntity.TRACE_DIRECTORY.
+     */
+    private void dumpPhysicsTraces() {
+        Path file = Path.of(MovingEntity.TRACE_DIRECTORY,
+                "physics-trace-" + System.currentTimeMillis() + ".txt");
+        actionsLogger.info("Dump physics traces to {}", file);
+        entityManager.requestPhysicsTraceDump(file);
     }
 
     public void restart() {
@@ -32,6 +63,8 @@ public class GamePanel extends AnimationPanel {
         // recreate our entities and initialize everything
         try {
             entityManager = dataService.loadLevel(1);
+            entityManager.setBackground(getBackground());
+            entityManager.prepareFloors();
         } catch (FileNotFoundException e) {
             e.printStackTrace();
         }
@@ -45,28 +78,31 @@ public class GamePanel extends AnimationPanel {
      */
     public void update() {
         // every time we update, we need to keep track of our ticks for Animation
-        // TODO: get a tickTracker Animation object to invoke tick()
-        // tickTracker.tick();
+        tickTracker.tick();
 
-        long startTime = System.currentTimeMillis();
+        long startTime = System.nanoTime();
         // do the physics for the animations
         entityManager.moveAllObjects();
-        long stopTime = System.currentTimeMillis();
-        perfLogger.debug("Updated Time: {}", (stopTime-startTime));
+        metrics.getUpdateTime().record(System.nanoTime() - startTime);
     }
 
     @Override
     protected void paintComponent(Graphics g) {
         super.paintComponent(g);
-        long startTime = System.currentTimeMillis();
+        if (!isActiveRendering()) {
+            paintFrame(g, getWidth(), getHeight());
+        }
+    }
+
+    @Override
+    protected void paintFrame(Graphics g, int width, int height) {
+        long startTime = System.nanoTime();
 
-        // get our offset
-        int xOffset = Hero.getHero().getXOffset();
-        // tell all our entities to paint
-        entityManager.drawAllObjects(g, xOffset, 0);
+        // tell all our entities that are on screen to paint. The offset that keeps
+        // the Hero centered is taken from the same tick as the entities.
+        entityManager.drawLatestTick(g, width, height);
 
-        long stopTime = System.currentTimeMillis();
-        perfLogger.debug("Paint Time: {}", (stopTime-startTime));
+        metrics.getPaintTime().record(System.nanoTime() - startTime);
     }
 
     private void createEventHandlers() {
@@ -4,25 +4,202 @@ import java.awt.Rectangle;
 import java.awt.geom.Line2D;
 import java.awt.geom.Rectangle2D;
 
-public class Line extends Line2D.Double {
+import org.apache.logging.log4j.util.StringBuilderFormattable;
+
+/**
+ * A floor, wall or ceiling in the level.
+ * 
+ * Level lines never change once they are added, so the geometry used by the
+ * collision code (bounding box, slope, angle, walkability) is calculated once
+ * when the line is set instead of on every check.
+ * BEWARE: Assigning x1, y1, x2 or y2 directly skips this. Use setLine() instead.
+ * 
+ * Lines are logged on every physics tick when debugging, so they write
+ * themselves into log4j's buffer (formatTo) instead of making a String.
+ */
+public class Line extends Line2D.Double implements StringBuilderFormattable {
+
+    /**
+     * Lines at this angle (in degrees from horizontal) or flatter can be walked on.
+     */
+    public static final double MAX_WALKABLE_ANGLE = 45;
+
+    // Cached geometry. Set by setLine(), which the Line2D.Double constructor calls.
+    private double minX;
+    private double maxX;
+    private double minY;
+    private double maxY;
+    private double slope;
+    private double intercept;
+    private double angle;
+    private boolean walkable;
 
     public Line(int x1, int y1, int x2, int y2) {
         super(x1, y1, x2, y2);
     }
 
+    /**
+     * Sets the end points and recalculates all the cached geometry.
+     */
+    @Override
+    public void setLine(double x1, double y1, double x2, double y2) {
+        super.setLine(x1, y1, x2, y2);
+
+        minX = Math.min(x1, x2);
+        maxX = Math.max(x1, x2);
+        minY = Math.min(y1, y2);
+        maxY = Math.max(y1, y2);
+
+        // y = slope * x + intercept. Vertical lines have no slope.
+        if (x1 != x2) {
+            slope = (y2 - y1) / (x2 - x1);
+            intercept = y1 - slope * x1;
+        } else {
+            slope = java.lang.Double.POSITIVE_INFINITY;
+            intercept = java.lang.Double.NaN;
+        }
+
+        // Calculate angle from horizontal (in degrees)
+        angle = Math.toDegrees(Math.atan2(Math.abs(y2 - y1), Math.abs(x2 - x1)));
+        walkable = angle <= MAX_WALKABLE_ANGLE;
+    }
+
+    public double getMinX() {
+        return minX;
+    }
+
+    public double getMaxX() {
+        return maxX;
+    }
+
+    public double getMinY() {
+        return minY;
+    }
+
+    public double getMaxY() {
+        return maxY;
+    }
+
+    /**
+     * @return The change in y for each change in x. Infinity if vertical.
+     */
+    public double getSlope() {
+        return slope;
+    }
+
+    /**
+     * @return The angle from horizontal in degrees, 0 to 90
+     */
+    public double getAngle() {
+        return angle;
+    }
+
+    /**
+     * Vertical walls (90 degrees) and steep slopes are not walkable.
+     * 
+     * @return true if the slope is no steeper than MAX_WALKABLE_ANGLE
+     */
+    public boolean isWalkable() {
+        return walkable;
+    }
+
+    /**
+     * Gets the y-position of the (extended) line at an x-position.
+     * Not valid for vertical lines.
+     * 
+     * @param x The x-position
+     * @return The y-position
+     */
+    public double yAt(double x) {
+        return slope * x + intercept;
+    }
+
     public boolean linesIntersect(Line other) {
         return Line2D.linesIntersect(x1, y1, x2, y2, other.x1, other.y1, other.x2, other.y2);
     }
 
     public String toString() {
-        return String.format("(%d, %d) - (%d, %d)", (int) x1, (int) y1, (int) x2, (int) y2);
+        StringBuilder sb = new StringBuilder(32);
+        formatTo(sb);
+        return sb.toString();
+    }
+
+    /**
+     * Appends "(x1, y1) - (x2, y2)" without making any garbage.
+     *
+     * @param buffer Where to append the line
+     */
+    @Override
+    public void formatTo(StringBuilder buffer) {
+        buffer.append('(').append((int) x1).append(", ").append((int) y1).append(") - (")
+              .append((int) x2).append(", ").append((int) y2).append(')');
     }
 
     public boolean intersectsRect(Rectangle2D rect) {
+        // quick reject using our bounding box before the full test
+        if (rect.getMaxX() < minX || rect.getX() > maxX || rect.getMaxY() < minY || rect.getY() > maxY) {
+            return false;
+        }
         return rect.intersectsLine(x1, y1, x2, y2);
     }
 
+    /**
+     * Gets the highest point (smallest y) of this line between two x-positions.
+     * This is where the top of a floor is under an entity spanning xLeft to xRight.
+     * 
+     * @param xLeft The left edge of the range
+     * @param xRight The right edge of the range
+     * @return The smallest y of the line within the range
+     */
+    public double minYOver(double xLeft, double xRight) {
+        return yRangeOver(xLeft, xRight, true);
+    }
+
+    /**
+     * Gets the lowest point (largest y) of this line between two x-positions.
+     * This is where the bottom of a ceiling is over an entity spanning xLeft to xRight.
+     * 
+     * @param xLeft The left edge of the range
+     * @param xRight The right edge of the range
+     * @return The largest y of the line within the range
+     */
+    public double maxYOver(double xLeft, double xRight) {
+        return yRangeOver(xLeft, xRight, false);
+    }
+
+    private double yRangeOver(double xLeft, double xRight, boolean min) {
+        if (x1 == x2) {
+            // vertical. The whole line is at the same x.
+            return min ? minY : maxY;
+        }
+
+        // clip the range to the line, then the extremes are at the ends of the range
+        double xa = Math.max(xLeft, minX);
+        double xb = Math.min(xRight, maxX);
+        if (xa > xb) {
+            // the range misses the line. Use the whole line.
+            xa = minX;
+            xb = maxX;
+        }
+        double ya = yAt(xa);
+        double yb = yAt(xb);
+        return min ? Math.min(ya, yb) : Math.max(ya, yb);
+    }
+
     public static Rectangle2D.Double getUnionRect(Rectangle before, Rectangle after) {
+        return getUnionRect(before, after, new Rectangle2D.Double());
+    }
+
+    /**
+     * Same as getUnionRect(before, after) but fills in the given rectangle
+     * instead of creating a new one.
+     * 
+     * @param before The rectangle before moving
+     * @param after The rectangle after moving
+     * @param dest The rectangle to put the union into
+     * @return dest
+     */
+    public static Rectangle2D.Double getUnionRect(Rectangle before, Rectangle after, Rectangle2D.Double dest) {
         // take a union of the before/after rectangles and put into
         // a Rectangle2D object
         int xMin = Math.min(before.x, after.x);
@@ -31,7 +208,8 @@ public class Line extends Line2D.Double {
         int yMax = Math.max(before.y, after.y);
         int height = (yMax - yMin) + after.height;
         int width = (xMax - xMin) + after.width;
-        return new Rectangle2D.Double(xMin, yMin, width, height);
+        dest.setRect(xMin, yMin, width, height);
+        return dest;
     }
 
 }
@@ -17,6 +17,12 @@ public class MainFrame extends JFrame {
 
     public static MainFrame theFrame = null;
 
+    /**
+     * How the GamePanel draws: AnimationPanel.RENDER_REPAINT or RENDER_ACTIVE.
+     * Set at startup, before createFrame().
+     */
+    private static int renderMode = AnimationPanel.RENDER_REPAINT;
+
     private final DataService dataService;
     private final ImageService imageService;
     private final EntityFactory entityFactory;
@@ -31,6 +37,15 @@ public class MainFrame extends JFrame {
         this.imageService = imageService;
         this.entityFactory = entityFactory;
     }
+    /**
+     * Choose how the GamePanel draws its frames. Call before createFrame().
+     * 
+     * @param name "active" to draw from the game loop thread, otherwise Swing repaint()
+     */
+    public static void setRenderMode(String name) {
+        renderMode = "active".equalsIgnoreCase(name) ? AnimationPanel.RENDER_ACTIVE : AnimationPanel.RENDER_REPAINT;
+    }
+
     /**
      * Create the main JFrame and all animation JPanels.
      */
@@ -38,7 +53,9 @@ public class MainFrame extends JFrame {
         addMenuBar();
         panels = new JPanel[3];
 
-        panels[GAME_PANEL] = new GamePanel();
+        GamePanel gamePanel = new GamePanel();
+        gamePanel.setRenderMode(renderMode);
+        panels[GAME_PANEL] = gamePanel;
         panels[ANIMATIONS_PANEL] = new AnimationsDialog();
         panels[SAMPLE_PANEL] = new SampleLayout(imageService);
 
@@ -6,8 +6,6 @@ import com.mrstride.services.ImageService;
 import java.awt.*;
 import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
-import java.awt.image.BufferedImage;
-import java.io.IOException;
 
 /**
  * This class provides no functionality. It is only sample code intended
@@ -84,13 +82,15 @@ public class SampleLayout extends JPanel {
         JLabel imageLabel = new JLabel();
         imageLabel.setPreferredSize(new Dimension(300, 300));
         imageLabel.setAlignmentX(Component.LEFT_ALIGNMENT);
-        try {
-            BufferedImage img = imageService.getImage("penguin");
-            imageLabel.setIcon(new ImageIcon(img));
-            panel.add(imageLabel);
-        } catch (IOException ex) {
-            // ignore. Don't add the image.
-        }
+        panel.add(imageLabel);
+
+        // Don't decode on the UI Thread. Set the icon back on the UI Thread when it is ready.
+        imageService.getImageAsync("penguin").thenAccept(img ->
+            SwingUtilities.invokeLater(() -> imageLabel.setIcon(new ImageIcon(img)))
+        ).exceptionally(ex -> {
+            // ignore. The label stays empty.
+            return null;
+        });
 
         JComboBox<String> comboBox = new JComboBox<>(new String[]{"Option 1", "Option 2", "Option 3"});
         comboBox.setAlignmentX(Component.LEFT_ALIGNMENT);
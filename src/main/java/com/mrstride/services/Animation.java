@@ -1,6 +1,7 @@
 package com.mrstride.services;
 
 import java.awt.image.BufferedImage;
+import java.io.IOException;
 import java.util.function.Function;
 
 public class Animation {
@@ -38,6 +39,22 @@ public class Animation {
     private int height;
     private Function<Integer, Integer> animationEnded;
 
+    /**
+     * The sliced frames. Shared with every other Animation of this sheet and size.
+     */
+    private AnimationFrames frames;
+
+    /**
+     * The tick when the current mode started. Frames are counted from here.
+     */
+    private long modeStartTick;
+
+    /**
+     * The mode and index of the frame getCurrentFrame() last returned.
+     */
+    private int shownMode;
+    private int shownIndex;
+
     /**
      * Create an animation object. These dependencies are injected
      * by the Animation Factory service.
@@ -53,6 +70,18 @@ public class Animation {
         this.id = id;
     }
 
+    /**
+     * Create an animation object that uses frames that are already sliced.
+     * This is how the AnimationFactory shares one frame table between many
+     * Animations, so that the sheet is not sliced again for each one.
+     * 
+     * @param frames The shared frame table for this sheet and size
+     */
+    public Animation(ImageService imageService, AnimationFrames frames) {
+        this(imageService, frames.getSheetId(), frames.getWidth(), frames.getHeight());
+        this.frames = frames;
+    }
+
     /**
      * All initialization for this Animation should happen here.
      * This will get called by the AnimationFactory.
@@ -66,8 +95,16 @@ public class Animation {
             return;
         }
 
-        // TODO: Get the spritesheet from the image service, call a helper method
-        // to parse the spritesheet and cache all the frames.        
+        // The AnimationFactory normally hands us frames that are already sliced.
+        if (frames == null) {
+            try {
+                frames = AnimationFrames.create(imageService, id, width, height);
+            } catch (IOException e) {
+                // getCurrentFrame() will return null and the Entity draws a grey box
+                e.printStackTrace();
+            }
+        }
+        modeStartTick = Animation.tick;
     }    
 
     /**
@@ -96,8 +133,6 @@ public class Animation {
         // we don't have a list of listeners. Just one.
         // Save the listener
         animationEnded = listener;
-
-        // TODO: When an animation sequences ends, invoke it if not null.
     }
 
     /**
@@ -107,8 +142,10 @@ public class Animation {
      * @param mode One of the Animation.MODE_constants
      */
     public void setMode(int mode) {
-        // TODO: When we change the animation mode, note the tick value so that
-        // animation frames can be determined.
+        if (mode != this.mode) {
+            this.mode = mode;
+            modeStartTick = Animation.tick;
+        }
     }
 
     /**
@@ -138,14 +175,55 @@ public class Animation {
      * @return The buffered image to draw
      */
     public BufferedImage getCurrentFrame() {
-        // TODO: Calculate the frame number by using the tick value.
-        // If we are at the end of an animation, reset as necessary.
-        // Return the cached image in the correct direction.
-        // OPTIONAL:
-        // Perhaps someone is listening for the end of an Animation sequence
-        // and we want to notify the listener. Knowing the end of an Animation
-        // sequence can allow the program to start a new animation or take
-        // some other action.
-        throw new UnsupportedOperationException("Not implemented yet");
+        if (frames == null) {
+            return null;
+        }
+
+        // fall back to standing still if the sheet doesn't have this mode
+        int showMode = mode;
+        int count = frames.getFrameCount(showMode);
+        if (count == 0) {
+            showMode = MODE_STILL;
+            count = frames.getFrameCount(showMode);
+            if (count == 0) {
+                return null;
+            }
+        }
+
+        long index = (Animation.tick - modeStartTick) / frames.getSpeed(showMode);
+        if (index >= count) {
+            if (frames.isRepeating(showMode)) {
+                index %= count;
+            } else if (showMode == mode && mode != MODE_STILL) {
+                // The sequence is over. Let the listener pick the next mode.
+                int next = (animationEnded == null) ? MODE_STILL : animationEnded.apply(mode);
+                if (next == mode) {
+                    // play it again
+                    modeStartTick = Animation.tick;
+                } else {
+                    setMode(next);
+                }
+                return getCurrentFrame();
+            } else {
+                // stay on the last frame
+                index = count - 1;
+            }
+        }
+        shownMode = showMode;
+        shownIndex = (int) index;
+        return frames.getFrame(showMode, direction, shownIndex);
+    }
+
+    /**
+     * Gets the sprite variant of the current frame, so it can be looked up in
+     * a TextureAtlas. Advances the animation the same way getCurrentFrame() does.
+     * 
+     * @return The variant of the frame to draw, or null if there is no frame
+     */
+    public SpriteVariantKey getCurrentFrameKey() {
+        if (getCurrentFrame() == null) {
+            return null;
+        }
+        return frames.getFrameKey(shownMode, direction, shownIndex);
     }
 }
@@ -1,5 +1,11 @@
 package com.mrstride.services;
 
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
@@ -8,9 +14,30 @@ public class AnimationFactory {
 
     private final ImageService imageService;
 
+    /**
+     * Frame tables by sheet and size. Every Animation of the same sheet
+     * and size shares one, so the sheet is only sliced once.
+     * The tables of a sheet are dropped when the ImageService says it changed.
+     * A table being sliced is a future that is not done yet, so the slicing
+     * happens outside the map and others wait for it instead of slicing again.
+     */
+    private final ConcurrentHashMap<FrameTableKey, CompletableFuture<AnimationFrames>> frameTables =
+            new ConcurrentHashMap<>();
+
     @Autowired
     public AnimationFactory(ImageService imageService) {
         this.imageService = imageService;
+        imageService.addImageChangedListener(this::imageChanged);
+    }
+
+    /**
+     * Forgets the frame tables sliced from a sprite sheet that was replaced.
+     * Animations already created keep their old frames. New ones get the new sheet.
+     * 
+     * @param spriteSheet the ID of the spritesheet that changed
+     */
+    void imageChanged(String spriteSheet) {
+        frameTables.keySet().removeIf(key -> key.sheetId().equals(spriteSheet));
     }
 
     /**
@@ -31,8 +58,54 @@ public class AnimationFactory {
      * @param height The height that the animation should be displayed as on the screen
      */
     public Animation createAnimation(String spriteSheet, int width, int height) {
-        Animation a = new Animation(this.imageService, spriteSheet, width, height);
+        Animation a;
+        try {
+            a = new Animation(this.imageService, getFrames(spriteSheet, width, height));
+        } catch (IOException e) {
+            // let the Animation try (and report) on its own
+            a = new Animation(this.imageService, spriteSheet, width, height);
+        }
         a.init();
         return a;
     }
+
+    /**
+     * Gets the shared frame table, slicing the sheet the first time.
+     * 
+     * @param spriteSheet the ID of the spritesheet
+     * @param width The display width
+     * @param height The display height
+     * @return The frame table
+     * @throws IOException if the sheet cannot be sliced
+     */
+    public AnimationFrames getFrames(String spriteSheet, int width, int height) throws IOException {
+        FrameTableKey key = new FrameTableKey(spriteSheet, width, height);
+        CompletableFuture<AnimationFrames> frames = frameTables.get(key);
+        if (frames == null) {
+            CompletableFuture<AnimationFrames> build = new CompletableFuture<>();
+            frames = frameTables.putIfAbsent(key, build);
+            if (frames == null) {
+                frames = build;
+                try {
+                    build.complete(AnimationFrames.create(imageService, spriteSheet, width, height));
+                } catch (IOException | RuntimeException e) {
+                    // don't remember failures. The next caller tries again.
+                    frameTables.remove(key, build);
+                    build.completeExceptionally(e);
+                }
+            }
+        }
+
+        try {
+            return frames.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for frames: " + key);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Could not slice frames: " + key, e.getCause());
+        }
+    }
 }
@@ -0,0 +1,142 @@
+package com.mrstride.services;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * The frames of a sprite sheet, sliced, resized and flipped for one display size.
+ *
+ * A table is built once per (sheetId, width, height) by the AnimationFactory and
+ * shared by every Animation of that sheet and size. It never changes after it is
+ * built, so any number of threads can read it.
+ *
+ * Frames are looked up by [mode][direction][index]. A mode that the sheet does
+ * not support has no frames. Each frame also has the SpriteVariantKey it was
+ * built as, so it can be found in a TextureAtlas.
+ */
+public class AnimationFrames {
+
+    private final String sheetId;
+    private final int width;
+    private final int height;
+
+    // [mode][direction][index]
+    private final BufferedImage[][][] frames;
+    private final SpriteVariantKey[][][] keys;
+    private final boolean[] repeat;
+    private final int[] speed;
+
+    private AnimationFrames(String sheetId, int width, int height,
+            BufferedImage[][][] frames, SpriteVariantKey[][][] keys, boolean[] repeat, int[] speed) {
+        this.sheetId = sheetId;
+        this.width = width;
+        this.height = height;
+        this.frames = frames;
+        this.keys = keys;
+        this.repeat = repeat;
+        this.speed = speed;
+    }
+
+    /**
+     * Slices the sprite sheet into frames of the given display size.
+     * The frame images come from ImageService.getSpriteVariant(), so they are
+     * also shared with anyone else drawing the same frame at the same size.
+     *
+     * @param imageService Where to get the sheet information and frames
+     * @param sheetId The id of the sprite sheet
+     * @param width The display width (not frame width)
+     * @param height The display height (not frame height)
+     * @return The frame table
+     * @throws IOException if the sheet is unknown or its image cannot be loaded
+     */
+    public static AnimationFrames create(ImageService imageService, String sheetId, int width, int height)
+            throws IOException {
+        SpriteSheetInfo ssi = imageService.getSpriteSheetInfo(sheetId);
+        if (ssi == null) {
+            throw new IOException("No sprite sheet information for id: " + sheetId);
+        }
+
+        int modes = ssi.frames().length;
+        BufferedImage[][][] frames = new BufferedImage[modes][2][];
+        SpriteVariantKey[][][] keys = new SpriteVariantKey[modes][2][];
+        boolean[] repeat = new boolean[modes];
+        int[] speed = new int[modes];
+        for (int mode = 0; mode < modes; mode++) {
+            boolean supported = ssi.modeOrigins()[mode] != null;
+            int count = supported ? ssi.frames()[mode] : 0;
+            frames[mode][Animation.FACING_RIGHT] = new BufferedImage[count];
+            frames[mode][Animation.FACING_LEFT] = new BufferedImage[count];
+            keys[mode][Animation.FACING_RIGHT] = new SpriteVariantKey[count];
+            keys[mode][Animation.FACING_LEFT] = new SpriteVariantKey[count];
+            for (int i = 0; i < count; i++) {
+                int frame = ssi.frameNumber(mode, i);
+                keys[mode][Animation.FACING_RIGHT][i] = new SpriteVariantKey(sheetId, frame, width, height, false);
+                keys[mode][Animation.FACING_LEFT][i] = new SpriteVariantKey(sheetId, frame, width, height, true);
+                frames[mode][Animation.FACING_RIGHT][i] =
+                    imageService.getSpriteVariant(sheetId, frame, width, height, false);
+                frames[mode][Animation.FACING_LEFT][i] =
+                    imageService.getSpriteVariant(sheetId, frame, width, height, true);
+            }
+            repeat[mode] = ssi.repeat() == null || ssi.repeat()[mode];
+            // a speed of 0 would never advance, so treat it as every tick
+            speed[mode] = (ssi.animationSpeed() == null) ? 1 : Math.max(1, ssi.animationSpeed()[mode]);
+        }
+        return new AnimationFrames(sheetId, width, height, frames, keys, repeat, speed);
+    }
+
+    public String getSheetId() {
+        return sheetId;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @param mode One of the Animation.MODE_ constants
+     * @return The number of frames in the mode. 0 if the mode is not supported.
+     */
+    public int getFrameCount(int mode) {
+        return (mode < 0 || mode >= frames.length) ? 0 : frames[mode][Animation.FACING_RIGHT].length;
+    }
+
+    /**
+     * @param mode One of the Animation.MODE_ constants
+     * @return true if the mode starts over after its last frame
+     */
+    public boolean isRepeating(int mode) {
+        return repeat[mode];
+    }
+
+    /**
+     * @param mode One of the Animation.MODE_ constants
+     * @return The number of ticks each frame of the mode is shown
+     */
+    public int getSpeed(int mode) {
+        return speed[mode];
+    }
+
+    /**
+     * @param mode One of the Animation.MODE_ constants
+     * @param direction Animation.FACING_LEFT or FACING_RIGHT
+     * @param index The index of the frame within the mode
+     * @return The frame image. Shared, so don't draw into it.
+     */
+    public BufferedImage getFrame(int mode, int direction, int index) {
+        return frames[mode][direction][index];
+    }
+
+    /**
+     * @param mode One of the Animation.MODE_ constants
+     * @param direction Animation.FACING_LEFT or FACING_RIGHT
+     * @param index The index of the frame within the mode
+     * @return The variant the frame was built as
+     */
+    public SpriteVariantKey getFrameKey(int mode, int direction, int index) {
+        return keys[mode][direction][index];
+    }
+}
@@ -0,0 +1,26 @@
+package com.mrstride.services;
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+
+/*
+ * Where one sprite was packed in a TextureAtlas: a rectangle of one of its pages.
+ */
+public record AtlasRegion(
+    BufferedImage page,     // the atlas page that holds the sprite
+    int x,                  // left of the sprite in the page
+    int y,                  // top of the sprite in the page
+    int width,              // width of the sprite
+    int height)             // height of the sprite
+{
+    /**
+     * Draws the sprite from its page, the same as drawing the original image.
+     *
+     * @param g Graphics to draw into
+     * @param dx Screen x-position
+     * @param dy Screen y-position
+     */
+    public void draw(Graphics g, int dx, int dy) {
+        g.drawImage(page, dx, dy, dx + width, dy + height, x, y, x + width, y + height, null);
+    }
+}
@@ -0,0 +1,37 @@
+package com.mrstride.services;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder event for one MovingEntity resolving its collisions in a tick.
+ *
+ * There is one of these per moving entity per tick, so it is off unless the
+ * recording asks for it. With jfr/platformstudent.jfc, add collisions=true:
+ *   -XX:StartFlightRecording:settings=default,settings=platformstudent.jfc,collisions=true
+ *
+ * Each MovingEntity reuses one of these for all its updates.
+ */
+@Name("com.mrstride.Collision")
+@Label("Collision Resolution")
+@Category({ "Platform Student", "Physics" })
+@Description("A moving entity checked its floors, walls and ceilings")
+@Enabled(false)
+@StackTrace(false)
+public class CollisionEvent extends Event {
+
+    @Label("Entity")
+    public String entityId;
+
+    @Label("Lines Tested")
+    public int linesTested;
+
+    @Label("Hits")
+    @Description("Floors, walls and ceilings the entity hit")
+    public int hits;
+}
@@ -0,0 +1,303 @@
+package com.mrstride.services;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+
+/**
+ * A cache of decoded images on disk, so that PNGs don't have to be inflated
+ * again on the next run.
+ *
+ * Each image file gets one cache file holding a small header and then the raw
+ * ARGB pixels. Loading reads the whole cache file into memory and copies the pixels
+ * straight into the new image's pixel array. That is much faster than decoding
+ * a PNG. The file is read into a normal array rather than memory mapped, so it
+ * is closed as soon as load() returns and can be replaced or deleted right away
+ * (Windows will not delete a file that is still mapped).
+ *
+ * A hit gives back the same type of BufferedImage that ImageIO gave when the
+ * file was decoded. Only the common RGB types can be rebuilt exactly from ARGB
+ * pixels, so images of other types (palette, gray, custom) are not stored.
+ *
+ * The cache file is found by the image's path. It is used as is if the image
+ * file has the same modified time and length as when it was cached. If they
+ * changed, the image file's SHA-256 is compared with the one in the header: the
+ * same content (the file was only touched) keeps the entry, otherwise the entry
+ * is stale and the image is decoded again.
+ *
+ * Cache files are written to a temporary file and then renamed, so a crash
+ * never leaves a half written entry. Any problem with the cache is treated as
+ * a miss. The cache never stops an image from loading.
+ */
+public class DecodedImageDiskCache {
+
+    private static final int MAGIC = 0x4D534943;    // "MSIC"
+    private static final int VERSION = 2;
+    private static final int HASH_BYTES = 32;
+
+    /**
+     * magic, version, width, height, image type, mtime, length, hash
+     */
+    private static final int HEADER_BYTES = 4 + 4 + 4 + 4 + 4 + 8 + 8 + HASH_BYTES;
+
+    /**
+     * Where mtime is in the header. rewriteHeader() writes mtime and length there.
+     */
+    private static final int MODIFIED_OFFSET = 20;
+
+    private final Path directory;
+
+    /**
+     * @param directory Where to keep the cache files. Created if needed.
+     * @throws IOException if the directory cannot be created
+     */
+    public DecodedImageDiskCache(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Loads the cached pixels of the image file.
+     *
+     * @param source The image file (e.g. the png)
+     * @return The image, or null if it is not cached or the entry is stale
+     */
+    public BufferedImage load(File source) {
+        Path entry = entryFor(source);
+        if (!Files.exists(entry)) {
+            return null;
+        }
+
+        try {
+            ByteBuffer buffer = readEntry(entry);
+            if (buffer == null) {
+                return null;
+            }
+            long size = buffer.remaining();
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return null;
+            }
+            int width = buffer.getInt();
+            int height = buffer.getInt();
+            int type = buffer.getInt();
+            long modified = buffer.getLong();
+            long length = buffer.getLong();
+            byte[] hash = new byte[HASH_BYTES];
+            buffer.get(hash);
+            if (!canStore(type) || size != HEADER_BYTES + 4L * width * height) {
+                return null;
+            }
+
+            if (modified != source.lastModified() || length != source.length()) {
+                // the file was touched. Only the content matters.
+                if (!Arrays.equals(hash, hashOf(source))) {
+                    return null;
+                }
+                rewriteHeader(entry, source);
+            }
+
+            return toImage(buffer, width, height, type);
+        } catch (IOException | RuntimeException e) {
+            // a broken entry is only a miss
+            return null;
+        }
+    }
+
+    /**
+     * Saves the decoded pixels of the image file.
+     * Images of a type that load() cannot rebuild are not saved.
+     *
+     * @param source The image file the image was decoded from
+     * @param image The decoded image
+     * @return true if the image was saved
+     * @throws IOException if the entry cannot be written
+     */
+    public boolean store(File source, BufferedImage image) throws IOException {
+        if (!canStore(image.getType())) {
+            return false;
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + 4 * pixels.length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height).putInt(image.getType());
+        buffer.putLong(source.lastModified()).putLong(source.length());
+        buffer.put(hashOf(source));
+        buffer.asIntBuffer().put(pixels);
+        buffer.rewind();
+
+        Path entry = entryFor(source);
+        Path temp = Files.createTempFile(directory, entry.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return true;
+    }
+
+    /**
+     * Whether an image of this type can be rebuilt exactly from its ARGB pixels.
+     *
+     * @param type A BufferedImage.TYPE_ constant
+     * @return true if images of this type can be cached
+     */
+    public static boolean canStore(int type) {
+        switch (type) {
+            case BufferedImage.TYPE_INT_ARGB:
+            case BufferedImage.TYPE_INT_RGB:
+            case BufferedImage.TYPE_INT_BGR:
+            case BufferedImage.TYPE_4BYTE_ABGR:
+            case BufferedImage.TYPE_3BYTE_BGR:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Deletes all the cache files.
+     *
+     * @throws IOException if a file cannot be deleted
+     */
+    public void clear() throws IOException {
+        try (var files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    /**
+     * Reads the whole cache file into memory and closes it.
+     *
+     * @return The bytes ready to read, or null if the file is too short or too big
+     */
+    private static ByteBuffer readEntry(Path entry) throws IOException {
+        try (FileChannel channel = FileChannel.open(entry, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES || size > Integer.MAX_VALUE) {
+                return null;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    return null;
+                }
+            }
+            return buffer.flip();
+        }
+    }
+
+    /**
+     * Creates the image of the given type from the ARGB pixels left in the buffer.
+     * The usual types are filled in directly. That is much faster than setRGB().
+     */
+    private static BufferedImage toImage(ByteBuffer buffer, int width, int height, int type) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        int count = width * height;
+        switch (type) {
+            case BufferedImage.TYPE_INT_ARGB:
+            case BufferedImage.TYPE_INT_RGB:
+                // TYPE_INT_RGB ignores the alpha byte, which is always 0xff anyway
+                buffer.asIntBuffer().get(((DataBufferInt) image.getRaster().getDataBuffer()).getData());
+                break;
+            case BufferedImage.TYPE_4BYTE_ABGR: {
+                byte[] bytes = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+                for (int i = 0, b = 0; i < count; i++) {
+                    int argb = buffer.getInt();
+                    bytes[b++] = (byte) (argb >>> 24);
+                    bytes[b++] = (byte) argb;
+                    bytes[b++] = (byte) (argb >> 8);
+                    bytes[b++] = (byte) (argb >> 16);
+                }
+                break;
+            }
+            case BufferedImage.TYPE_3BYTE_BGR: {
+                byte[] bytes = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+                for (int i = 0, b = 0; i < count; i++) {
+                    int argb = buffer.getInt();
+                    bytes[b++] = (byte) argb;
+                    bytes[b++] = (byte) (argb >> 8);
+                    bytes[b++] = (byte) (argb >> 16);
+                }
+                break;
+            }
+            default: {
+                int[] pixels = new int[count];
+                buffer.asIntBuffer().get(pixels);
+                image.setRGB(0, 0, width, height, pixels, 0, width);
+                break;
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Records the image file's new modified time and length, so the next load
+     * does not have to hash the file again.
+     */
+    private void rewriteHeader(Path entry, File source) throws IOException {
+        ByteBuffer times = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+        times.putLong(source.lastModified()).putLong(source.length());
+        times.rewind();
+        try (FileChannel channel = FileChannel.open(entry, StandardOpenOption.WRITE)) {
+            channel.write(times, MODIFIED_OFFSET);
+        }
+    }
+
+    /**
+     * The cache file for an image file is named by the SHA-256 of its absolute path.
+     */
+    private Path entryFor(File source) {
+        byte[] path = source.getAbsolutePath().getBytes(StandardCharsets.UTF_8);
+        return directory.resolve(HexFormat.of().formatHex(sha256().digest(path)) + ".argb");
+    }
+
+    private static byte[] hashOf(File source) throws IOException {
+        MessageDigest digest = sha256();
+        try (InputStream in = Files.newInputStream(source.toPath())) {
+            byte[] buffer = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        return digest.digest();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -3,21 +3,29 @@ package com.mrstride.services;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 
-import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Graphics;
-import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.event.KeyListener;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
 
 import javax.swing.JPanel;
 
 import com.mrstride.entity.Entity;
+import com.mrstride.entity.Hero;
+import com.mrstride.entity.MovingEntity;
 import com.mrstride.gui.Line;
+import com.mrstride.gui.MainFrame;
 
 
 /**
@@ -31,15 +39,75 @@ import com.mrstride.gui.Line;
  * It is important for this class to assure that Entity actions are
  * independent so that they can be parallelized. 
  * 
- * In the future it may also:
- * - Use parallelStreams to enable multithreading
- * - Keep track of Entities in viewable window to optimize painting
+ * Floors and walls are also kept in a LineGrid (a uniform grid spatial index)
+ * so that each Entity is only given the lines near where it could move to.
+ * 
+ * Entities live in a dense EntityStore. Removed entities are compacted out
+ * at the end of each tick, and each added entity gets a stable handle.
+ * 
+ * Entity updates can optionally run in parallel (see setParallel). Spawns go into
+ * thread-safe queues and removals/additions are merged after all updates finish.
+ * 
+ * Painting skips entities and floors that are outside of the viewable window.
+ * 
+ * Every tick, the number of entities updated and the floors & walls they were
+ * given to collide with are recorded in GameMetrics, and as an EntityUpdateEvent
+ * for Flight Recorder.
+ * 
+ * Painting happens on the GUI thread while moving happens on the physics thread.
+ * At the end of every tick the physics thread copies what it needs to draw into a
+ * RenderSnapshot and swaps it into a lock-free triple buffer. The GUI thread
+ * paints the newest snapshot, so it never blocks physics and never sees an
+ * entity half way through its update. With AnimationPanel.RENDER_ACTIVE the game
+ * loop thread paints instead of the GUI thread. Either way, only one thread paints.
  */
 public class EntityManager {
+    /**
+     * The number of entities each parallel task updates. Fewer entities
+     * than this are always updated sequentially.
+     */
+    public static final int PARALLEL_CHUNK_SIZE = 512;
+
     private List<Line> floors;
-    private Queue<Entity> entities; 
+    private LineGrid floorGrid;
+    private FloorLayer floorLayer;
+    private EntityStore entities;
+    private volatile boolean parallel = false;
+    private volatile TextureAtlas atlas;
+
+    // Reused every tick, by whichever update runs, so the event creates no garbage. begin() starts it over.
+    private final EntityUpdateEvent updateEvent = new EntityUpdateEvent();
+
+    // Reused every tick by the sequential update to avoid garbage
+    private final Rectangle sweptBounds = new Rectangle();
+    private final List<Line> nearbyFloors = new ArrayList<>();
+    private final Queue<Entity> toAdd = new LinkedList<>();
+
+    // Reused every tick by the parallel update. Each ForkJoinPool worker has its
+    // own bounds and floors list, and each chunk has its own spawn queue.
+    private final ThreadLocal<Rectangle> workerBounds = ThreadLocal.withInitial(Rectangle::new);
+    private final ThreadLocal<List<Line>> workerFloors = ThreadLocal.withInitial(ArrayList::new);
+    private final List<Queue<Entity>> chunkSpawns = new ArrayList<>();
+
+    /**
+     * Triple buffer of render snapshots:
+     *  - backSnapshot is only touched by the physics thread while it fills it in.
+     *  - readySnapshot holds the newest finished snapshot. Both threads swap with it.
+     *  - frontSnapshot is only touched by the GUI thread while it paints it.
+     */
+    private RenderSnapshot backSnapshot = new RenderSnapshot();
+    private final AtomicReference<RenderSnapshot> readySnapshot = new AtomicReference<>(new RenderSnapshot());
+    private RenderSnapshot frontSnapshot = new RenderSnapshot();
+    private long tickCount;
+
+    // A trace dump asked for by another thread, written at the end of the next tick
+    private final AtomicReference<Path> traceDumpRequest = new AtomicReference<>();
+
+    // Reused every paint by the GUI thread to avoid garbage
+    private final Rectangle viewport = new Rectangle();
 
     private Logger logger = LogManager.getLogger("console");
+    private final GameMetrics metrics = GameMetrics.getInstance();
 
     public EntityManager() {
         clear();
@@ -54,18 +122,52 @@ public class EntityManager {
         // Hero.hero will get reset when a new Hero is instantiated
 
         floors = new ArrayList<>();
-        entities = new LinkedList<>();
+        floorGrid = new LineGrid();
+        floorLayer = new FloorLayer(floorGrid);
+        if (entities != null) {
+            // unpin the images of the entities we are dropping
+            entities.clear();
+        }
+        entities = new EntityStore();
     }
 
     public void addFloor(Line floor) {
         floors.add(floor);
+        floorGrid.add(floor);
+        floorLayer.invalidate();
     }
 
-    public void addEntity(Entity entity) {
+    /**
+     * Adds the entity to the end of the list of entities.
+     * 
+     * @param entity The entity to add
+     * @return A handle that can be used with getEntity() to find this entity later
+     */
+    public long addEntity(Entity entity) {
         if (entity.isHero()) {
             logger.debug("Adding Hero");
         }
-        entities.add(entity);
+        return entities.add(entity);
+    }
+
+    /**
+     * Gets an entity by the handle returned from addEntity().
+     * 
+     * @param handle The entity's handle
+     * @return The entity, or null if it has been removed
+     */
+    public Entity getEntity(long handle) {
+        return entities.getByHandle(handle);
+    }
+
+    /**
+     * Gets an entity by its position in update order.
+     * 
+     * @param index 0 to getEntityCount()-1
+     * @return The entity
+     */
+    Entity getEntityAt(int index) {
+        return entities.get(index);
     }
 
     public int getFloorCount() {
@@ -83,7 +185,8 @@ public class EntityManager {
      * @param panel The panel to listen to.
      */
     public void createEventHandlers(JPanel panel) {
-        for (Entity entity : entities) {
+        for (int i = 0; i < entities.size(); i++) {
+            Entity entity = entities.get(i);
             KeyListener listener = entity.getKeyListener();
             if (listener != null) {
                 panel.addKeyListener(listener);
@@ -93,78 +196,315 @@ public class EntityManager {
         }
     }
 
+    /**
+     * Turn on/off the parallel update mode. When on, and there are enough
+     * entities to make it worthwhile, moveAllObjects() updates the entities
+     * across the ForkJoinPool using a parallel stream.
+     * 
+     * @param parallel true to update entities in parallel
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    /**
+     * Sets the texture atlas to draw sprites from. Sprites that are not in the
+     * atlas are drawn from their own images, as before.
+     * 
+     * @param atlas The atlas, or null to draw every sprite from its own image
+     */
+    public void setTextureAtlas(TextureAtlas atlas) {
+        this.atlas = atlas;
+    }
+
+    public TextureAtlas getTextureAtlas() {
+        return atlas;
+    }
+
     /**
      * This method gets called by the GamePanel::update() which is triggered by the
      * AnimationPanel's Thread. This method will move all the objects every
      * "tick".
      */
     public void moveAllObjects() {
+        updateEvent.begin();
+        if (parallel && entities.size() > PARALLEL_CHUNK_SIZE) {
+            moveAllObjectsParallel();
+            return;
+        }
        
         // Entities are prohibited (by convention) to remove themselves
         // from the list of entities. But an entity may want to add/remove 
         // entities to this. 
         
         // This is a sequential, non-thread-safe method
-        Queue<Entity> toAdd = new LinkedList<>();
-
-        // Sequential processing that allows removal
-        Iterator<Entity> iter = entities.iterator();
-        while (iter.hasNext()) {
-            Entity ent = iter.next();
-            if (!ent.update(floors, toAdd)) {
-                iter.remove();
+        toAdd.clear();
+
+        // Sequential processing that allows removal.
+        // Removed entities are only marked and then compacted out after the loop.
+        int count = entities.size();
+        long tested = 0;
+        for (int i = 0; i < count; i++) {
+            Entity ent = entities.get(i);
+
+            // only give the entity the floors & walls it could possibly touch
+            ent.getSweptBounds(sweptBounds);
+            floorGrid.query(sweptBounds, nearbyFloors);
+            tested += nearbyFloors.size();
+            if (!ent.update(nearbyFloors, toAdd)) {
+                entities.markRemoved(i);
             }
         }
+        entities.compact();
+        int removed = count - entities.size();
+
+        // Spawned entities join at the end and move starting next tick
+        int spawned = toAdd.size();
+        Entity spawn;
+        while ((spawn = toAdd.poll()) != null) {
+            entities.add(spawn);
+        }
+        endTick(count, spawned, removed, tested, false);
 
-        // In the future, we'd add/remove entities here
         // In the future, we'd do collision detection here.
         
     }
 
+    /**
+     * Parallel version of moveAllObjects().
+     * 
+     * The entities are split into fixed size chunks and each chunk is updated on
+     * a ForkJoinPool thread. Every chunk has its own spawn queue and only marks
+     * its own entities as removed, so no entity state is shared.
+     * 
+     * Removals and spawns are merged afterwards on this thread, in the same order
+     * as the sequential loop, so the result is identical to the sequential mode.
+     */
+    private void moveAllObjectsParallel() {
+        int count = entities.size();
+        int chunks = (count + PARALLEL_CHUNK_SIZE - 1) / PARALLEL_CHUNK_SIZE;
+
+        // A chunk's queue is only touched by the task updating that chunk, and the
+        // merge below happens after all the tasks finish, so plain queues are safe.
+        while (chunkSpawns.size() < chunks) {
+            chunkSpawns.add(new ArrayDeque<>());
+        }
+
+        // each chunk returns the number of floors & walls it handed out
+        long tested = IntStream.range(0, chunks).parallel().mapToLong(c -> {
+            // the shared buffers are not thread-safe, so use this worker's own
+            Rectangle bounds = workerBounds.get();
+            List<Line> nearby = workerFloors.get();
+            Queue<Entity> spawns = chunkSpawns.get(c);
+
+            long chunkTested = 0;
+            int end = Math.min(count, (c + 1) * PARALLEL_CHUNK_SIZE);
+            for (int i = c * PARALLEL_CHUNK_SIZE; i < end; i++) {
+                Entity ent = entities.get(i);
+                ent.getSweptBounds(bounds);
+                floorGrid.query(bounds, nearby);
+                chunkTested += nearby.size();
+                if (!ent.update(nearby, spawns)) {
+                    entities.markRemoved(i);
+                }
+            }
+            return chunkTested;
+        }).sum();
+
+        // Merge step: drop removed entities, then append the spawns in chunk order
+        entities.compact();
+        int kept = entities.size();
+        for (int c = 0; c < chunks; c++) {
+            Queue<Entity> spawns = chunkSpawns.get(c);
+            for (Entity ent : spawns) {
+                entities.add(ent);
+            }
+            spawns.clear();
+        }
+        endTick(count, entities.size() - kept, count - kept, tested, true);
+    }
+
+    /**
+     * Records the tick in GameMetrics and Flight Recorder and publishes the snapshot.
+     * The EntityUpdateEvent was begun at the start of the tick.
+     * 
+     * @param count The number of entities updated
+     * @param spawned The number of entities added
+     * @param removed The number of entities removed
+     * @param tested The number of floors & walls handed to the entities
+     * @param parallel true if the entities were updated in parallel
+     */
+    private void endTick(int count, int spawned, int removed, long tested, boolean parallel) {
+        metrics.getEntitiesProcessed().record(count);
+        metrics.getCollisionsTested().record(tested);
+        publishSnapshot();
+        dumpRequestedTraces();
+
+        updateEvent.end();
+        if (updateEvent.shouldCommit()) {
+            updateEvent.entities = count;
+            updateEvent.spawned = spawned;
+            updateEvent.removed = removed;
+            updateEvent.linesTested = tested;
+            updateEvent.parallel = parallel;
+            updateEvent.commit();
+        }
+    }
+
+    /**
+     * Writes the recent physics events (see PhysicsTrace) of every moving entity
+     * to a file, decoded into text.
+     * 
+     * The traces are written by the physics thread without any locking, so this
+     * must be called on that thread or while the game is not running. Other threads
+     * use requestPhysicsTraceDump().
+     * 
+     * @param file The file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void dumpPhysicsTraces(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        try (Writer out = Files.newBufferedWriter(file)) {
+            int count = entities.size();
+            for (int i = 0; i < count; i++) {
+                if (entities.get(i) instanceof MovingEntity moving) {
+                    moving.getPhysicsTrace().dump(out, "#" + i + " " + moving.getId());
+                }
+            }
+        }
+    }
+
+    /**
+     * Asks for the physics traces to be dumped to a file (see dumpPhysicsTraces()).
+     * This may be called from any thread. The file is written by the physics thread
+     * at the end of the next tick, between entity updates. If a request is already
+     * waiting, it is replaced.
+     * 
+     * @param file The file to write
+     */
+    public void requestPhysicsTraceDump(Path file) {
+        traceDumpRequest.set(file);
+    }
+
+    private void dumpRequestedTraces() {
+        Path file = traceDumpRequest.getAndSet(null);
+        if (file == null) {
+            return;
+        }
+        try {
+            dumpPhysicsTraces(file);
+            logger.info("Physics traces written to {}", file);
+        } catch (IOException e) {
+            logger.error("Could not write physics traces to {}: {}", file, e.getMessage());
+        }
+    }
+
+    /**
+     * Copies the entities and the camera offset (which follows the Hero) into the
+     * back snapshot and swaps it with the ready one.
+     * This is called by the physics thread once all entities have moved.
+     */
+    private void publishSnapshot() {
+        backSnapshot.capture(entities, ++tickCount, atlas, Hero.getHero().getXOffset(), 0);
+        backSnapshot = readySnapshot.getAndSet(backSnapshot);
+    }
+
     /**
      * This is on the GUI thread, triggered by a repaint() scheduled
      * by the paintTimer.
      * 
+     * The visible area is taken from the Graphics clip, or the MainFrame size
+     * if there is no clip.
+     * 
      * @param g       Graphics object to draw in
      * @param xOffset The amount to offset x-position
      * @param yOffset The amount to offset y-position
      */
     public void drawAllObjects(Graphics g, int xOffset, int yOffset) {
-        // Note: If entities are added or removed from the list of
-        // in another Thread then a for-each loop will throw a
-        // ConcurrentModificationException.
-        for (Entity entity : entities) {
-            entity.draw(g, xOffset, yOffset);
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) {
+            clip = new Rectangle(0, 0, MainFrame.WIDTH, MainFrame.HEIGHT);
         }
+        drawAllObjects(g, xOffset, yOffset, clip.x + clip.width, clip.y + clip.height);
+    }
 
-        drawFloorsAndWalls(g, xOffset, yOffset);
+    /**
+     * This is on the GUI thread, triggered by a repaint() scheduled
+     * by the paintTimer, or on the game loop thread when it renders actively.
+     * Only one thread may paint at a time.
+     * 
+     * Entities are drawn as they were at the end of the latest tick.
+     * Only the entities and floors that overlap the visible area are drawn.
+     * The visible area in world coordinates is the panel size shifted by the offsets.
+     * 
+     * @param g       Graphics object to draw in
+     * @param xOffset The amount to offset x-position
+     * @param yOffset The amount to offset y-position
+     * @param width   The width of the panel being drawn
+     * @param height  The height of the panel being drawn
+     */
+    public void drawAllObjects(Graphics g, int xOffset, int yOffset, int width, int height) {
+        takeNewestSnapshot();
+        draw(g, xOffset, yOffset, width, height);
     }
 
     /**
-     * Draws the floors and walls.
-     * This does not need to be synchronized because it is private and calling
-     * methods will be synchronized.
+     * Same as drawAllObjects(g, xOffset, yOffset, width, height), but the view
+     * follows the camera offset captured at the end of the latest tick, so the
+     * world and the Hero are always drawn from the same tick.
      * 
-     * @param g       Graphics to draw in
-     * @param xOffset The offset using the Hero (centered)
-     * @param yOffset The offset using the Hero (centered)
+     * @param g       Graphics object to draw in
+     * @param width   The width of the panel being drawn
+     * @param height  The height of the panel being drawn
      */
-    private void drawFloorsAndWalls(Graphics g, int xOffset, int yOffset) {
-        // Let's just draw the floors and walls
+    public void drawLatestTick(Graphics g, int width, int height) {
+        takeNewestSnapshot();
+        draw(g, frontSnapshot.getXOffset(), frontSnapshot.getYOffset(), width, height);
+    }
 
-        Graphics2D g2d = (Graphics2D) g;
+    /**
+     * Take the newest snapshot if the physics thread has published one since
+     * our last paint. Otherwise, the ready one is the one we just gave back.
+     */
+    private void takeNewestSnapshot() {
+        if (readySnapshot.get().getSequence() > frontSnapshot.getSequence()) {
+            frontSnapshot = readySnapshot.getAndSet(frontSnapshot);
+        }
+    }
 
-        // Set the line thickness
-        float thickness = 2.0f;
-        g2d.setStroke(new BasicStroke(thickness));
+    private void draw(Graphics g, int xOffset, int yOffset, int width, int height) {
+        viewport.setBounds(xOffset, yOffset, width, height);
 
-        // Set the floor color
-        g2d.setColor(Color.BLUE);
+        // The floors and walls never move, so they are drawn from cached tiles,
+        // under the entities.
+        floorLayer.draw(g, viewport);
 
-        for (Line floor : floors) {
-            g.drawLine((int) floor.x1 - xOffset, (int) floor.y1 - yOffset, (int) floor.x2 - xOffset,
-                    (int) floor.y2 - yOffset);
-        }
+        frontSnapshot.draw(g, viewport);
+    }
+
+    /**
+     * Draws the floor and wall tiles for the whole level. Call after the level's
+     * floors are added and the background is set, so that painting never has to.
+     */
+    public void prepareFloors() {
+        floorLayer.build();
+    }
+
+    /**
+     * Sets the color the floors and walls are drawn on. It must match the
+     * background of the panel being drawn into.
+     * 
+     * @param background The panel's background color
+     */
+    public void setBackground(Color background) {
+        floorLayer.setBackground(background);
     }
 
 }
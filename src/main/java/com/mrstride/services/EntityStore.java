@@ -0,0 +1,168 @@
+package com.mrstride.services;
+
+import java.util.Arrays;
+
+import com.mrstride.entity.Entity;
+
+/**
+ * A dense, array-backed collection of Entities for the EntityManager.
+ *
+ * Entities are kept in a plain array so that walking them every tick does not
+ * chase LinkedList nodes. Removing is deferred: update loops call markRemoved()
+ * and then compact() squeezes out the removed entities in one pass at the end
+ * of the tick. Compacting keeps the original order so that drawing order and
+ * update order never change.
+ *
+ * Each added Entity gets a stable handle. The handle keeps working no matter
+ * how the array is compacted. Once an entity is removed its handle is stale and
+ * getByHandle() returns null, even if the slot is later reused by a new entity.
+ *
+ * This class is not thread-safe, except that different threads may call
+ * markRemoved() for different indexes at the same time.
+ */
+public class EntityStore {
+
+    /**
+     * The low 32 bits of a handle are the slot. The high 32 bits are the
+     * generation of that slot so that old handles can be detected. A slot can be
+     * reused 2^32 times before an old handle could match again, which even a
+     * level spawning thousands of bullets a second never gets near.
+     */
+    private static final int SLOT_BITS = 32;
+    private static final long SLOT_MASK = (1L << SLOT_BITS) - 1;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    // dense storage, in update/draw order
+    private Entity[] entities = new Entity[INITIAL_CAPACITY];
+    private boolean[] removed = new boolean[INITIAL_CAPACITY];
+    private int[] slotOf = new int[INITIAL_CAPACITY];
+    private int size;
+
+    // slot table that backs the handles
+    private int[] indexOfSlot = new int[INITIAL_CAPACITY];
+    private int[] generation = new int[INITIAL_CAPACITY];
+    private int[] freeSlots = new int[INITIAL_CAPACITY];
+    private int freeCount;
+    private int slotCount;
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the entity at a position in the dense array.
+     *
+     * @param index 0 to size()-1
+     * @return the Entity at that index
+     */
+    public Entity get(int index) {
+        return entities[index];
+    }
+
+    /**
+     * Adds the entity to the end of the store.
+     *
+     * @param entity The entity to add
+     * @return The handle that refers to this entity until it is removed
+     */
+    public long add(Entity entity) {
+        if (size == entities.length) {
+            int capacity = size * 2;
+            entities = Arrays.copyOf(entities, capacity);
+            removed = Arrays.copyOf(removed, capacity);
+            slotOf = Arrays.copyOf(slotOf, capacity);
+        }
+
+        int slot = allocateSlot();
+        entities[size] = entity;
+        removed[size] = false;
+        slotOf[size] = slot;
+        indexOfSlot[slot] = size;
+        size++;
+        return ((long) generation[slot] << SLOT_BITS) | slot;
+    }
+
+    /**
+     * Gets the entity that the handle refers to.
+     *
+     * @param handle A handle returned by add()
+     * @return The entity, or null if it has been removed
+     */
+    public Entity getByHandle(long handle) {
+        int slot = (int) (handle & SLOT_MASK);
+        if (slot < 0 || slot >= slotCount || generation[slot] != (int) (handle >>> SLOT_BITS)) {
+            return null;
+        }
+        int index = indexOfSlot[slot];
+        return (index < 0 || removed[index]) ? null : entities[index];
+    }
+
+    /**
+     * Marks the entity at this index to be removed by the next compact().
+     *
+     * @param index 0 to size()-1
+     */
+    public void markRemoved(int index) {
+        removed[index] = true;
+    }
+
+    /**
+     * Squeezes out every entity marked as removed, keeping the order of the rest.
+     * The handles of removed entities become stale and their images are released.
+     */
+    public void compact() {
+        int dest = 0;
+        for (int i = 0; i < size; i++) {
+            int slot = slotOf[i];
+            if (removed[i]) {
+                entities[i].releaseImages();
+                freeSlot(slot);
+                continue;
+            }
+            if (dest != i) {
+                entities[dest] = entities[i];
+                slotOf[dest] = slot;
+                indexOfSlot[slot] = dest;
+            }
+            removed[dest] = false;
+            dest++;
+        }
+
+        // don't hold on to the removed entities
+        Arrays.fill(entities, dest, size, null);
+        size = dest;
+    }
+
+    /**
+     * Removes every entity and releases their images.
+     */
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            entities[i].releaseImages();
+            freeSlot(slotOf[i]);
+        }
+        Arrays.fill(entities, 0, size, null);
+        size = 0;
+    }
+
+    private int allocateSlot() {
+        if (freeCount > 0) {
+            return freeSlots[--freeCount];
+        }
+        if (slotCount == indexOfSlot.length) {
+            int capacity = slotCount * 2;
+            indexOfSlot = Arrays.copyOf(indexOfSlot, capacity);
+            generation = Arrays.copyOf(generation, capacity);
+            freeSlots = Arrays.copyOf(freeSlots, capacity);
+        }
+        return slotCount++;
+    }
+
+    private void freeSlot(int slot) {
+        indexOfSlot[slot] = -1;
+        // bump the generation so that old handles to this slot are stale
+        generation[slot]++;
+        freeSlots[freeCount++] = slot;
+    }
+}
@@ -0,0 +1,37 @@
+package com.mrstride.services;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder event for EntityManager.moveAllObjects().
+ * The event's duration is how long moving every entity took.
+ */
+@Name("com.mrstride.EntityUpdate")
+@Label("Entity Update")
+@Category({ "Platform Student", "Physics" })
+@Description("All the entities moved for one tick")
+@StackTrace(false)
+public class EntityUpdateEvent extends Event {
+
+    @Label("Entities")
+    @Description("Entities updated")
+    public int entities;
+
+    @Label("Spawned")
+    public int spawned;
+
+    @Label("Removed")
+    public int removed;
+
+    @Label("Lines Tested")
+    @Description("Floors and walls handed to the entities to collide with")
+    public long linesTested;
+
+    @Label("Parallel")
+    public boolean parallel;
+}
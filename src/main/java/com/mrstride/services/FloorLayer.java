@@ -0,0 +1,337 @@
+package com.mrstride.services;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsEnvironment;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.mrstride.gui.Line;
+
+/**
+ * The floors and walls drawn once into tile images, so that painting a frame
+ * only copies the few tiles the camera can see instead of drawing every line.
+ * This is the static background layer: it is drawn first and the entities are
+ * drawn on top of it.
+ *
+ * Tiles are opaque (the lines on the background color), so drawing one is a
+ * straight copy with no blending. On a screen they are created in the screen's
+ * format, so Java2D can keep them in video memory.
+ *
+ * The world is cut into TILE_SIZE x TILE_SIZE tiles. build() draws every tile of
+ * the level at once, when the level is loaded, so scrolling never has to draw a
+ * tile while painting. All the level's tiles are kept, up to MAX_TILE_BYTES of
+ * images. Each tile image is cropped to the part of the tile its lines cover, and
+ * tiles with no lines take no memory.
+ * A tile with only a few lines keeps the lines instead of an image. Drawing a
+ * handful of lines is cheaper than copying an image, and it is still bounded,
+ * so the cost of a frame does not grow with the number of lines in the level.
+ *
+ * The level's lines never move, so the tiles only need to be built again when
+ * lines are added or the background changes. invalidate() marks the tiles out of
+ * date. If draw() finds them out of date, it starts building new ones on another
+ * thread and draws the visible lines directly until they are ready.
+ *
+ * Only the thread that paints may call draw(). build() and invalidate() may be
+ * called from any thread, but not while lines are being added to the LineGrid.
+ */
+class FloorLayer {
+
+    public static final int TILE_SIZE = 512;
+
+    /**
+     * Tiles with this many lines or fewer draw the lines instead of keeping an image.
+     */
+    public static final int MAX_DIRECT_LINES = 8;
+
+    /**
+     * The most bytes of tile images kept for one level (128 MB). A huge level
+     * full of lines draws the lines of the tiles past this instead of running
+     * out of memory.
+     */
+    public static final long MAX_TILE_BYTES = 128L * 1024 * 1024;
+
+    public static final float THICKNESS = 2.0f;
+    public static final Color COLOR = Color.BLUE;
+
+    private static final BasicStroke STROKE = new BasicStroke(THICKNESS);
+
+    /**
+     * The drawn part of a tile and where it goes in the world.
+     * image is null for a tile that draws its lines directly.
+     */
+    private record Tile(BufferedImage image, int x, int y, Line[] lines) { }
+
+    /**
+     * All the tiles of the level, by (col, row), and what they were built for.
+     * Never changed after it is built. Tiles with no lines are not in the map.
+     */
+    private record TileSet(int version, Color background, Map<Long, Tile> tiles) { }
+
+    private final LineGrid floorGrid;
+
+    // Bumped by invalidate(). The tiles are out of date when it does not match theirs.
+    private volatile int version;
+    private volatile Color background = Color.WHITE;
+
+    private volatile TileSet tileSet;
+    private final AtomicBoolean building = new AtomicBoolean();
+
+    // Reused by the painting thread
+    private final List<Line> visibleLines = new ArrayList<>();
+
+    /**
+     * @param floorGrid The grid of the level's lines. Used to find the lines of each tile.
+     */
+    FloorLayer(LineGrid floorGrid) {
+        this.floorGrid = floorGrid;
+    }
+
+    /**
+     * Marks the tiles out of date. Call after the lines change.
+     */
+    void invalidate() {
+        version++;
+    }
+
+    /**
+     * Sets the color behind the lines. It must match the panel's background.
+     *
+     * @param background The background color
+     */
+    void setBackground(Color background) {
+        if (!background.equals(this.background)) {
+            this.background = background;
+            invalidate();
+        }
+    }
+
+    /**
+     * Draws all the tiles of the level. Call once the level's lines are added,
+     * so that the first frames do not have to draw the lines themselves.
+     */
+    synchronized void build() {
+        int buildVersion = version;
+        Color buildBackground = background;
+        if (isCurrent(tileSet, buildVersion, buildBackground)) {
+            return;
+        }
+
+        // every tile that some line's box (plus thickness) reaches into
+        int pad = (int) Math.ceil(THICKNESS);
+        Set<Long> keys = new HashSet<>();
+        for (int i = 0; i < floorGrid.size(); i++) {
+            Line floor = floorGrid.get(i);
+            int col0 = Math.floorDiv((int) Math.floor(floor.getMinX()) - pad, TILE_SIZE);
+            int col1 = Math.floorDiv((int) Math.ceil(floor.getMaxX()) + pad, TILE_SIZE);
+            int row0 = Math.floorDiv((int) Math.floor(floor.getMinY()) - pad, TILE_SIZE);
+            int row1 = Math.floorDiv((int) Math.ceil(floor.getMaxY()) + pad, TILE_SIZE);
+            for (int row = row0; row <= row1; row++) {
+                for (int col = col0; col <= col1; col++) {
+                    keys.add(keyOf(col, row));
+                }
+            }
+        }
+
+        Map<Long, Tile> tiles = new HashMap<>();
+        Rectangle tileArea = new Rectangle();
+        List<Line> tileLines = new ArrayList<>();
+        long bytes = 0;
+        for (long key : keys) {
+            boolean imageAllowed = bytes + 4L * TILE_SIZE * TILE_SIZE <= MAX_TILE_BYTES;
+            Tile tile = createTile((int) (key >> 32), (int) key, buildBackground, imageAllowed, tileArea, tileLines);
+            if (tile != null) {
+                tiles.put(key, tile);
+                if (tile.image() != null) {
+                    bytes += 4L * tile.image().getWidth() * tile.image().getHeight();
+                }
+            }
+        }
+        tileSet = new TileSet(buildVersion, buildBackground, tiles);
+    }
+
+    /**
+     * Draws the floors and walls that are in the viewport.
+     *
+     * @param g Graphics to draw into
+     * @param viewport The visible area in world coordinates
+     */
+    void draw(Graphics g, Rectangle viewport) {
+        TileSet current = tileSet;
+        if (!isCurrent(current, version, background)) {
+            buildInBackground();
+            drawLines(g, viewport);
+            return;
+        }
+
+        int col0 = Math.floorDiv(viewport.x, TILE_SIZE);
+        int col1 = Math.floorDiv(viewport.x + viewport.width - 1, TILE_SIZE);
+        int row0 = Math.floorDiv(viewport.y, TILE_SIZE);
+        int row1 = Math.floorDiv(viewport.y + viewport.height - 1, TILE_SIZE);
+        Graphics2D g2 = null;
+        Shape clip = null;
+        for (int row = row0; row <= row1; row++) {
+            for (int col = col0; col <= col1; col++) {
+                Tile tile = current.tiles().get(keyOf(col, row));
+                if (tile == null) {
+                    continue;
+                }
+                if (tile.image() != null) {
+                    g.drawImage(tile.image(), tile.x() - viewport.x, tile.y() - viewport.y, null);
+                    continue;
+                }
+
+                // A few lines, clipped to the tile so a line that crosses
+                // several tiles is not drawn twice.
+                if (g2 == null) {
+                    g2 = (Graphics2D) g.create();
+                    g2.setStroke(STROKE);
+                    g2.setColor(COLOR);
+                    clip = g2.getClip();
+                }
+                g2.setClip(clip);
+                g2.clipRect(tile.x() - viewport.x, tile.y() - viewport.y, TILE_SIZE, TILE_SIZE);
+                for (Line floor : tile.lines()) {
+                    drawLine(g2, floor, viewport.x, viewport.y);
+                }
+            }
+        }
+        if (g2 != null) {
+            g2.dispose();
+        }
+    }
+
+    /**
+     * @return true if the tiles are built for the current lines and background
+     */
+    boolean isBuilt() {
+        return isCurrent(tileSet, version, background);
+    }
+
+    private static boolean isCurrent(TileSet tiles, int version, Color background) {
+        return tiles != null && tiles.version() == version && tiles.background().equals(background);
+    }
+
+    /**
+     * Starts a build() on another thread, unless one is already running.
+     */
+    private void buildInBackground() {
+        if (building.compareAndSet(false, true)) {
+            CompletableFuture.runAsync(() -> {
+                try {
+                    build();
+                } finally {
+                    building.set(false);
+                }
+            });
+        }
+    }
+
+    /**
+     * Draws the visible lines straight onto the screen. Used until the tiles are built.
+     */
+    private void drawLines(Graphics g, Rectangle viewport) {
+        floorGrid.query(viewport, visibleLines);
+        Graphics2D g2 = (Graphics2D) g.create();
+        g2.setStroke(STROKE);
+        g2.setColor(COLOR);
+        for (Line floor : visibleLines) {
+            drawLine(g2, floor, viewport.x, viewport.y);
+        }
+        g2.dispose();
+        visibleLines.clear();
+    }
+
+    /**
+     * Lines are always drawn with the same integer coordinates, whether into a
+     * tile or straight onto the screen, so the pixels are the same either way.
+     */
+    private static void drawLine(Graphics2D g, Line floor, int xOffset, int yOffset) {
+        g.drawLine((int) floor.x1 - xOffset, (int) floor.y1 - yOffset,
+                (int) floor.x2 - xOffset, (int) floor.y2 - yOffset);
+    }
+
+    private static long keyOf(int col, int row) {
+        return ((long) col << 32) | (row & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Draws the lines that cross the tile into a new image, or keeps the lines
+     * if there are only a few (or there is no room left for another image).
+     *
+     * @return The tile, or null if no line reaches into it
+     */
+    private Tile createTile(int col, int row, Color background, boolean imageAllowed,
+            Rectangle tileArea, List<Line> tileLines) {
+        int left = col * TILE_SIZE;
+        int top = row * TILE_SIZE;
+
+        // lines just outside the tile can still reach into it with their thickness
+        int pad = (int) Math.ceil(THICKNESS);
+        tileArea.setBounds(left - pad, top - pad, TILE_SIZE + 2 * pad, TILE_SIZE + 2 * pad);
+        floorGrid.query(tileArea, tileLines);
+        // the grid can return lines from far away (cells that share a bucket)
+        tileLines.removeIf(floor -> floor.getMaxX() < tileArea.x || floor.getMinX() > tileArea.x + tileArea.width
+                || floor.getMaxY() < tileArea.y || floor.getMinY() > tileArea.y + tileArea.height);
+
+        // crop to the part of the tile the lines can touch
+        int x0 = left + TILE_SIZE;
+        int y0 = top + TILE_SIZE;
+        int x1 = left;
+        int y1 = top;
+        for (Line floor : tileLines) {
+            x0 = Math.min(x0, (int) Math.floor(floor.getMinX()) - pad);
+            y0 = Math.min(y0, (int) Math.floor(floor.getMinY()) - pad);
+            x1 = Math.max(x1, (int) Math.ceil(floor.getMaxX()) + pad);
+            y1 = Math.max(y1, (int) Math.ceil(floor.getMaxY()) + pad);
+        }
+        x0 = Math.max(x0, left);
+        y0 = Math.max(y0, top);
+        x1 = Math.min(x1, left + TILE_SIZE);
+        y1 = Math.min(y1, top + TILE_SIZE);
+        if (x0 >= x1 || y0 >= y1) {
+            tileLines.clear();
+            return null;
+        }
+
+        if (tileLines.size() <= MAX_DIRECT_LINES || !imageAllowed) {
+            Tile tile = new Tile(null, left, top, tileLines.toArray(new Line[0]));
+            tileLines.clear();
+            return tile;
+        }
+
+        BufferedImage image = createOpaqueImage(x1 - x0, y1 - y0);
+        Graphics2D g = image.createGraphics();
+        g.setColor(background);
+        g.fillRect(0, 0, image.getWidth(), image.getHeight());
+        g.setStroke(STROKE);
+        g.setColor(COLOR);
+        for (Line floor : tileLines) {
+            drawLine(g, floor, x0, y0);
+        }
+        g.dispose();
+        tileLines.clear();
+
+        return new Tile(image, x0, y0, null);
+    }
+
+    private static BufferedImage createOpaqueImage(int width, int height) {
+        if (GraphicsEnvironment.isHeadless()) {
+            return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        }
+        return GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice()
+                .getDefaultConfiguration().createCompatibleImage(width, height, Transparency.OPAQUE);
+    }
+}
@@ -0,0 +1,11 @@
+package com.mrstride.services;
+
+/*
+ * Identifies one frame table in the AnimationFactory: a sprite sheet sliced
+ * for one display size.
+ */
+record FrameTableKey(
+    String sheetId,         // the ID of the sprite sheet in the image service
+    int width,              // the width to draw at
+    int height)             // the height to draw at
+    { }
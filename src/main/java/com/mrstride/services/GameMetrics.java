@@ -0,0 +1,141 @@
+package com.mrstride.services;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * In-process performance metrics of the game loop, kept in lock-free Histograms.
+ *
+ * - updateTime: nanoseconds each physics tick (GamePanel.update()) took
+ * - paintTime: nanoseconds each frame took to draw
+ * - tickJitter: nanoseconds between the start of two updates, minus PHYSICS_DELAY
+ *       (absolute value). 0 means the ticks are perfectly even.
+ * - entitiesProcessed: entities updated each tick
+ * - collisionsTested: floors and walls handed to entities each tick
+ *
+ * Recording is cheap enough to leave on all the time. Benchmarks and tests can
+ * read the histograms directly, and startPeriodicDump() writes a one line
+ * summary of each to the "PerformanceFile" log every so often.
+ *
+ * The values are counted since the program started, or since the last reset().
+ */
+public class GameMetrics {
+
+    public static final int DEFAULT_DUMP_SECONDS = 10;
+
+    private static final GameMetrics instance = new GameMetrics();
+
+    private final Histogram updateTime = new Histogram("update ns");
+    private final Histogram paintTime = new Histogram("paint ns");
+    private final Histogram tickJitter = new Histogram("tick jitter ns");
+    private final Histogram entitiesProcessed = new Histogram("entities/tick");
+    private final Histogram collisionsTested = new Histogram("collisions/tick");
+    private final List<Histogram> all =
+        List.of(updateTime, paintTime, tickJitter, entitiesProcessed, collisionsTested);
+
+    private ScheduledExecutorService dumper;
+    private ScheduledFuture<?> dump;
+    private final Logger perfLogger = LogManager.getLogger("PerformanceFile");
+
+    /**
+     * Use getInstance(), except to measure something on its own (e.g. in a benchmark).
+     */
+    public GameMetrics() {
+    }
+
+    /**
+     * @return The metrics the game records into
+     */
+    public static GameMetrics getInstance() {
+        return instance;
+    }
+
+    public Histogram getUpdateTime() {
+        return updateTime;
+    }
+
+    public Histogram getPaintTime() {
+        return paintTime;
+    }
+
+    public Histogram getTickJitter() {
+        return tickJitter;
+    }
+
+    public Histogram getEntitiesProcessed() {
+        return entitiesProcessed;
+    }
+
+    public Histogram getCollisionsTested() {
+        return collisionsTested;
+    }
+
+    /**
+     * @return A snapshot of every histogram, in the order listed in the class comment
+     */
+    public List<HistogramSnapshot> getSnapshots() {
+        return all.stream().map(Histogram::getSnapshot).toList();
+    }
+
+    /**
+     * Forgets everything recorded so far, for example after warming up.
+     */
+    public void reset() {
+        for (Histogram histogram : all) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * @return One line per histogram
+     */
+    public String summary() {
+        StringBuilder sb = new StringBuilder();
+        for (HistogramSnapshot snapshot : getSnapshots()) {
+            sb.append(snapshot).append(System.lineSeparator());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Logs the summary every so often on a background (daemon) thread.
+     * Does nothing if the dump is already running.
+     *
+     * @param seconds Seconds between dumps
+     */
+    public synchronized void startPeriodicDump(int seconds) {
+        if (dump != null) {
+            return;
+        }
+        if (dumper == null) {
+            dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "metrics-dump");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        dump = dumper.scheduleAtFixedRate(this::logSummary, seconds, seconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops the periodic dump.
+     */
+    public synchronized void stopPeriodicDump() {
+        if (dump != null) {
+            dump.cancel(false);
+            dump = null;
+        }
+    }
+
+    private void logSummary() {
+        for (HistogramSnapshot snapshot : getSnapshots()) {
+            perfLogger.info("{}", snapshot);
+        }
+    }
+}
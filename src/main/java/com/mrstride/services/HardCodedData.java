@@ -3,6 +3,7 @@ package com.mrstride.services;
 import java.io.FileNotFoundException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletionException;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
@@ -45,7 +46,12 @@ public class HardCodedData implements DataService {
     public EntityManager loadLevel(int level) throws FileNotFoundException {
         // We need to initialize the ImageService with some images
         addImages();
+        preloadImages();
 
+        if (entityMgr != null) {
+            // the old level's entities no longer need their images pinned
+            entityMgr.clear();
+        }
         entityMgr= new EntityManager();
 
         Entity e = new Entity("cloud", 200, 300, null);
@@ -87,6 +93,9 @@ public class HardCodedData implements DataService {
             entityMgr.addFloor(line);
         }
 
+        // now that the entities have their sprites, draw them all from a few atlas pages
+        entityMgr.setTextureAtlas(imageService.buildTextureAtlas());
+
         return entityMgr;
     }
 
@@ -99,11 +108,32 @@ public class HardCodedData implements DataService {
         // Set our flag so that we don't load the images again
         imagesAdded = true;
 
+        // The atlas finds sprites by variant, so a replaced image would still be
+        // drawn from the old pixels in the atlas. Draw from the images instead.
+        imageService.addImageChangedListener(id -> {
+            if (entityMgr != null) {
+                entityMgr.setTextureAtlas(null);
+            }
+        });
+
         // for now, we use only the two images
         imageService.addImageInfo("cloud", "cloud.png", ImageService.NORMAL_TYPE);
         imageService.addImageInfo("goldStar", "goldStar.png", ImageService.NORMAL_TYPE);
     }
 
+    /**
+     * Decode all the level's images in parallel before creating the entities,
+     * so that no entity has to wait on its own image decode.
+     */
+    private void preloadImages() {
+        try {
+            imageService.preload(imageService.getImages()).join();
+        } catch (CompletionException e) {
+            // The entity that needs the image will get the error when it asks for it.
+            e.printStackTrace();
+        }
+    }
+
     @Override
     public EntityManager getEntityManager() {
         return entityMgr;
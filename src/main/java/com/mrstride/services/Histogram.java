@@ -0,0 +1,142 @@
+package com.mrstride.services;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of non-negative long values (nanoseconds, counts, ...).
+ *
+ * Values are counted in log-linear buckets: each power of two is split into
+ * SUB_BUCKETS equal buckets, so a reported percentile is within about 3% of
+ * the real value, from 1 up to Long.MAX_VALUE. Values below SUB_BUCKETS are
+ * exact. The count, sum and max are exact.
+ *
+ * record() is a few atomic adds with no locks and no garbage, so it can be
+ * called from any number of threads every tick. Reading a snapshot while
+ * values are being recorded gives a result that may be missing the newest
+ * few values, which is fine for monitoring.
+ */
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    // values 0..SUB_BUCKETS-1 get their own bucket, then SUB_BUCKETS per power of two
+    private static final int BUCKETS = SUB_BUCKETS + (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final String name;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param name What is measured, for example "update ns"
+     */
+    public Histogram(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Counts one value. Negative values are counted as 0.
+     *
+     * @param value The value to count
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(bucketOf(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    /**
+     * Forgets all the values.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @return The average value, or 0 if nothing was recorded
+     */
+    public double getMean() {
+        long n = count.get();
+        return (n == 0) ? 0 : (double) sum.get() / n;
+    }
+
+    /**
+     * Gets the value that the given fraction of the values are at or below.
+     *
+     * @param percentile From 0 to 100, for example 99.9
+     * @return The (approximate) value, never more than the max. 0 if nothing was recorded.
+     */
+    public long getPercentile(double percentile) {
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            n += counts.get(i);
+        }
+        if (n == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestValueIn(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * @return The count, mean, p50, p99, p99.9 and max, all read now
+     */
+    public HistogramSnapshot getSnapshot() {
+        return new HistogramSnapshot(name, getCount(), getMean(),
+                getPercentile(50), getPercentile(99), getPercentile(99.9), getMax());
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);        // >= SUB_BUCKET_BITS
+        int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + sub;
+    }
+
+    static long highestValueIn(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = (bucket - SUB_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS;
+        long sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        int shift = exponent - SUB_BUCKET_BITS;
+        long lowest = (1L << exponent) | (sub << shift);
+        long width = 1L << shift;
+        // the top bucket would overflow
+        return (lowest + width - 1 < lowest) ? Long.MAX_VALUE : lowest + width - 1;
+    }
+}
@@ -0,0 +1,23 @@
+package com.mrstride.services;
+
+/**
+ * A point in time copy of a Histogram's statistics.
+ *
+ * The percentiles are within about 3% of the real values. count, mean and max are exact.
+ *
+ * @param name What was measured
+ * @param count The number of values recorded
+ * @param mean The average value
+ * @param p50 Half the values are at or below this
+ * @param p99 99% of the values are at or below this
+ * @param p999 99.9% of the values are at or below this
+ * @param max The largest value
+ */
+public record HistogramSnapshot(String name, long count, double mean, long p50, long p99, long p999, long max) {
+
+    @Override
+    public String toString() {
+        return String.format("%s: n=%d mean=%.1f p50=%d p99=%d p99.9=%d max=%d",
+                name, count, mean, p50, p99, p999, max);
+    }
+}
@@ -0,0 +1,273 @@
+package com.mrstride.services;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A bounded cache of decoded images, used by the ImageServiceProvider.
+ *
+ * The cache holds at most maxBytes of pixel data (width * height * bytes per pixel).
+ * When adding an image goes over the budget, the least recently used images are
+ * evicted until it fits again.
+ *
+ * Images can be pinned. Pinned images are never evicted. Entities that are alive
+ * should pin their images so that the image stays cached as long as it is in use.
+ *
+ * An evicted image that is still referenced somewhere else (for example, by an
+ * entity that did not pin it) is remembered with a WeakReference. If it is asked
+ * for again while still alive, it is reused instead of decoded a second time.
+ *
+ * The cache can be used from any thread. A hit (the common case) does not lock,
+ * so many threads can get images at once without waiting on each other. Each
+ * hit stamps the image with System.nanoTime() and eviction removes the oldest
+ * stamps first. Everything else (misses, adding, pinning, evicting) is synchronized.
+ */
+public class ImageCache {
+
+    private long maxBytes;
+    private long bytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private long evictions;
+
+    /**
+     * A cached image and when it was last used.
+     */
+    private static class Entry {
+        final BufferedImage image;
+        final long size;
+        volatile long lastUsed;
+
+        Entry(BufferedImage image) {
+            this.image = image;
+            this.size = sizeOf(image);
+            this.lastUsed = System.nanoTime();
+        }
+    }
+
+    /**
+     * The cached images. Read without locking, changed only while synchronized.
+     */
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Pin counts for pinned ids. Ids that are not pinned are not in the map.
+     */
+    private final Map<String, Integer> pins = new HashMap<>();
+
+    /**
+     * Evicted images that may still be in use elsewhere.
+     */
+    private final Map<String, WeakReference<BufferedImage>> evicted = new HashMap<>();
+
+    public ImageCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Gets the image from the cache.
+     *
+     * @param id The image id
+     * @return The image or null if it is not cached
+     */
+    public BufferedImage get(String id) {
+        Entry entry = entries.get(id);
+        if (entry != null) {
+            entry.lastUsed = System.nanoTime();
+            hits.increment();
+            return entry.image;
+        }
+        return getEvicted(id);
+    }
+
+    /**
+     * Gets the image only if it is in the cache, without counting a hit or miss.
+     * Used to check again after a miss, in case another thread just added it.
+     *
+     * @param id The image id
+     * @return The image or null if it is not cached
+     */
+    public BufferedImage peek(String id) {
+        Entry entry = entries.get(id);
+        if (entry == null) {
+            return null;
+        }
+        entry.lastUsed = System.nanoTime();
+        return entry.image;
+    }
+
+    /**
+     * The slow part of get(): the image may have been evicted but still be alive.
+     */
+    private synchronized BufferedImage getEvicted(String id) {
+        // someone may have added it while we waited for the lock
+        Entry entry = entries.get(id);
+        BufferedImage image = (entry == null) ? null : entry.image;
+        if (image == null) {
+            WeakReference<BufferedImage> ref = evicted.remove(id);
+            image = (ref == null) ? null : ref.get();
+            if (image != null) {
+                insert(id, image);
+            }
+        }
+
+        if (image == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return image;
+    }
+
+    /**
+     * Adds a newly decoded image to the cache, evicting others if needed.
+     *
+     * @param id The image id
+     * @param image The decoded image
+     */
+    public synchronized void put(String id, BufferedImage image) {
+        evicted.remove(id);
+        Entry old = entries.remove(id);
+        if (old != null) {
+            bytes -= old.size;
+        }
+        insert(id, image);
+    }
+
+    /**
+     * Adds a newly decoded image only if the condition is still true once the cache
+     * is locked. The check and the put happen together, so a remove() of the same
+     * id is either before both (and the image is not added) or after both.
+     *
+     * @param id The image id
+     * @param image The decoded image
+     * @param condition Checked while locked; the image is added only if it returns true
+     * @return true if the image was added
+     */
+    public synchronized boolean putIf(String id, BufferedImage image, BooleanSupplier condition) {
+        if (!condition.getAsBoolean()) {
+            return false;
+        }
+        put(id, image);
+        return true;
+    }
+
+    /**
+     * Removes the image from the cache (but not its pins).
+     *
+     * @param id The image id
+     */
+    public synchronized void remove(String id) {
+        evicted.remove(id);
+        Entry old = entries.remove(id);
+        if (old != null) {
+            bytes -= old.size;
+        }
+    }
+
+    /**
+     * Keeps the image from being evicted until unpin() is called the same number of times.
+     *
+     * @param id The image id
+     */
+    public synchronized void pin(String id) {
+        pins.merge(id, 1, Integer::sum);
+    }
+
+    /**
+     * Undoes one pin(). Once unpinned, the image may be evicted.
+     *
+     * @param id The image id
+     */
+    public synchronized void unpin(String id) {
+        Integer count = pins.get(id);
+        if (count == null) {
+            return;
+        }
+        if (count <= 1) {
+            pins.remove(id);
+            evictToBudget();
+        } else {
+            pins.put(id, count - 1);
+        }
+    }
+
+    public synchronized boolean isPinned(String id) {
+        return pins.containsKey(id);
+    }
+
+    /**
+     * Changes the budget, evicting images if the new budget is smaller.
+     *
+     * @param maxBytes The most bytes of pixel data to keep
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        evictToBudget();
+    }
+
+    public synchronized ImageCacheStats getStats() {
+        return new ImageCacheStats(hits.sum(), misses.sum(), evictions, entries.size(), bytes, maxBytes);
+    }
+
+    /**
+     * The number of bytes of pixel data the image holds on the heap.
+     * This is the size of the raster's DataBuffer, so an INT_RGB pixel counts
+     * as the 4 bytes it is stored in, not the 3 bytes of color it uses.
+     *
+     * @param image The image
+     * @return number of elements * bytes per element of the image's DataBuffer
+     */
+    public static long sizeOf(BufferedImage image) {
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        long elements = (long) buffer.getSize() * buffer.getNumBanks();
+        return elements * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+
+    private void insert(String id, BufferedImage image) {
+        Entry entry = new Entry(image);
+        entries.put(id, entry);
+        bytes += entry.size;
+        evictToBudget();
+    }
+
+    /**
+     * Evict the least recently used unpinned images until we are within budget.
+     * Pinned images are skipped, so we may stay over budget if everything is pinned.
+     */
+    private void evictToBudget() {
+        if (bytes > maxBytes) {
+            // Copy lastUsed before sorting. Hits keep changing it without the lock.
+            record Candidate(String id, Entry entry, long lastUsed) { }
+            List<Candidate> candidates = new ArrayList<>();
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                if (!pins.containsKey(e.getKey())) {
+                    candidates.add(new Candidate(e.getKey(), e.getValue(), e.getValue().lastUsed));
+                }
+            }
+            candidates.sort(Comparator.comparingLong(Candidate::lastUsed));
+
+            for (int i = 0; i < candidates.size() && bytes > maxBytes; i++) {
+                String id = candidates.get(i).id();
+                Entry entry = candidates.get(i).entry();
+                entries.remove(id);
+                bytes -= entry.size;
+                evictions++;
+                evicted.put(id, new WeakReference<>(entry.image));
+            }
+        }
+
+        // forget weak references whose images have been collected
+        evicted.values().removeIf(ref -> ref.get() == null);
+    }
+}
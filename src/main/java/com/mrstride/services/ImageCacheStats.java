@@ -0,0 +1,16 @@
+package com.mrstride.services;
+
+/*
+ * A point in time copy of the ImageCache counters.
+ *
+ * hits/misses count calls to ImageCache.get().
+ * evictions counts images evicted to stay within the byte budget.
+ */
+public record ImageCacheStats(
+    long hits,
+    long misses,
+    long evictions,
+    int count,              // number of images in the cache
+    long bytes,             // bytes of pixel data in the cache
+    long maxBytes)          // the byte budget
+    { }
@@ -0,0 +1,237 @@
+package com.mrstride.services;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Downloads images from URLs into a local mirror, so that restarting the
+ * program does not download the art again.
+ *
+ * Next to each mirrored file is a small ".meta" file with the ETag and
+ * Last-Modified the server sent. The first time a URL is asked for in this
+ * run, an existing mirror is revalidated with a conditional request
+ * (If-None-Match / If-Modified-Since). The server answers 304 Not Modified and
+ * nothing is downloaded unless the image changed. If the server cannot be
+ * reached, answers with an error, or the download is cut off, the mirror is
+ * used as is. After that, the mirror is trusted for the rest of the run.
+ *
+ * Downloads are streamed to a temporary file in the mirror's directory and then
+ * renamed over the mirror, so a crash or a failed download never leaves a
+ * partial image behind. Threads asking for the same mirror at the same time
+ * share one download.
+ */
+public class ImageDownloader {
+
+    public static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    public static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+
+    private static final String ETAG = "ETag";
+    private static final String LAST_MODIFIED = "Last-Modified";
+
+    private final HttpClient client;
+    private final Logger consoleLogger = LogManager.getLogger("console");
+
+    /**
+     * Downloads in progress by mirror path.
+     */
+    private final ConcurrentHashMap<Path, CompletableFuture<Path>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Mirrors that were already revalidated (or downloaded) in this run.
+     */
+    private final Set<Path> validated = ConcurrentHashMap.newKeySet();
+
+    public ImageDownloader() {
+        this(HttpClient.newBuilder()
+                .connectTimeout(CONNECT_TIMEOUT)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build());
+    }
+
+    /**
+     * @param client The HttpClient to download with (e.g. one set up for a test server)
+     */
+    public ImageDownloader(HttpClient client) {
+        this.client = client;
+    }
+
+    /**
+     * Makes sure the mirror holds the current image at the URL.
+     *
+     * @param url The URL of the image
+     * @param mirror Where to keep the local copy
+     * @return The mirror path
+     * @throws IOException if there is no mirror and the image cannot be downloaded
+     */
+    public Path fetch(String url, Path mirror) throws IOException {
+        if (validated.contains(mirror) && Files.exists(mirror)) {
+            return mirror;
+        }
+
+        CompletableFuture<Path> download = new CompletableFuture<>();
+        CompletableFuture<Path> existing = inFlight.putIfAbsent(mirror, download);
+        if (existing == null) {
+            try {
+                download.complete(refresh(url, mirror));
+            } catch (IOException | RuntimeException e) {
+                download.completeExceptionally(e);
+            } finally {
+                inFlight.remove(mirror, download);
+            }
+        } else {
+            download = existing;
+        }
+
+        try {
+            return download.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted downloading: " + url);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Could not download: " + url, e.getCause());
+        }
+    }
+
+    /**
+     * Downloads the image without keeping a copy.
+     *
+     * @param url The URL of the image
+     * @return The bytes of the image file
+     * @throws IOException if the image cannot be downloaded
+     */
+    public byte[] download(String url) throws IOException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url)).timeout(REQUEST_TIMEOUT).GET().build();
+        HttpResponse<byte[]> response = send(request, HttpResponse.BodyHandlers.ofByteArray());
+        if (response.statusCode() != 200) {
+            throw new IOException("HTTP " + response.statusCode() + " downloading " + url);
+        }
+        return response.body();
+    }
+
+    /**
+     * Uses the local copy when it could not be revalidated.
+     *
+     * @param url The URL that could not be downloaded
+     * @param mirror The local copy, which is left as it is
+     * @param e Why it could not be downloaded
+     * @return The mirror
+     */
+    private Path keepMirror(String url, Path mirror, IOException e) {
+        consoleLogger.warn("Could not revalidate {}, using local copy: {}", url, e.getMessage());
+        validated.add(mirror);
+        return mirror;
+    }
+
+    private Path refresh(String url, Path mirror) throws IOException {
+        Path metaFile = metaFileFor(mirror);
+        Properties meta = new Properties();
+        boolean haveMirror = Files.exists(mirror);
+        if (haveMirror && Files.exists(metaFile)) {
+            try (InputStream in = Files.newInputStream(metaFile)) {
+                meta.load(in);
+            }
+        }
+
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url)).timeout(REQUEST_TIMEOUT).GET();
+        if (haveMirror) {
+            if (meta.getProperty(ETAG) != null) {
+                builder.header("If-None-Match", meta.getProperty(ETAG));
+            }
+            if (meta.getProperty(LAST_MODIFIED) != null) {
+                builder.header("If-Modified-Since", meta.getProperty(LAST_MODIFIED));
+            }
+        }
+
+        Files.createDirectories(mirror.toAbsolutePath().getParent());
+        HttpResponse<InputStream> response;
+        try {
+            response = send(builder.build(), HttpResponse.BodyHandlers.ofInputStream());
+        } catch (IOException e) {
+            if (haveMirror) {
+                // offline. The copy we have is better than nothing.
+                return keepMirror(url, mirror, e);
+            }
+            throw e;
+        }
+
+        try (InputStream body = response.body()) {
+            int status = response.statusCode();
+            if (status == 304 && haveMirror) {
+                validated.add(mirror);
+                return mirror;
+            }
+            if (status != 200) {
+                throw new IOException("HTTP " + status + " downloading " + url);
+            }
+
+            // stream into a temp file next to the mirror, then rename it over the mirror
+            Path temp = Files.createTempFile(mirror.toAbsolutePath().getParent(),
+                    mirror.getFileName().toString(), ".part");
+            try {
+                try (OutputStream out = Files.newOutputStream(temp)) {
+                    body.transferTo(out);
+                }
+                Files.move(temp, mirror, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            if (haveMirror) {
+                // a server error or a download that was cut off. Same as being offline.
+                return keepMirror(url, mirror, e);
+            }
+            throw e;
+        }
+
+        Properties newMeta = new Properties();
+        response.headers().firstValue(ETAG).ifPresent(etag -> newMeta.setProperty(ETAG, etag));
+        response.headers().firstValue(LAST_MODIFIED).ifPresent(date -> newMeta.setProperty(LAST_MODIFIED, date));
+        Path tempMeta = Files.createTempFile(metaFile.toAbsolutePath().getParent(),
+                metaFile.getFileName().toString(), ".part");
+        try {
+            try (OutputStream out = Files.newOutputStream(tempMeta)) {
+                newMeta.store(out, url);
+            }
+            Files.move(tempMeta, metaFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempMeta);
+        }
+
+        validated.add(mirror);
+        return mirror;
+    }
+
+    private <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler) throws IOException {
+        try {
+            return client.send(request, handler);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted downloading: " + request.uri());
+        }
+    }
+
+    private static Path metaFileFor(Path mirror) {
+        return mirror.resolveSibling(mirror.getFileName() + ".meta");
+    }
+}
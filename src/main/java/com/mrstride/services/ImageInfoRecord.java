@@ -1,6 +1,5 @@
 package com.mrstride.services;
 
-import java.awt.image.BufferedImage;
 import java.nio.file.Paths;
 
 /**
@@ -11,7 +10,6 @@ public class ImageInfoRecord {
     public String id;
     public String uri;
     public String localPath;
-    public BufferedImage image;
 
     public int type;
 
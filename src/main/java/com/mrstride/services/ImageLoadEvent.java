@@ -0,0 +1,37 @@
+package com.mrstride.services;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Java Flight Recorder event for the ImageService loading an image.
+ * The event's duration is the time to read, decode and convert it.
+ */
+@Name("com.mrstride.ImageLoad")
+@Label("Image Load")
+@Category({ "Platform Student", "Images" })
+@Description("An image was loaded into the image cache")
+public class ImageLoadEvent extends Event {
+
+    @Label("Image Id")
+    public String imageId;
+
+    @Label("Source")
+    @Description("The file or URL")
+    public String source;
+
+    @Label("Width")
+    public int width;
+
+    @Label("Height")
+    public int height;
+
+    @Label("Bytes")
+    @Description("Bytes of decoded pixel data")
+    @DataAmount
+    public long bytes;
+}
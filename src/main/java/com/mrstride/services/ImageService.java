@@ -1,10 +1,15 @@
 
 package com.mrstride.services;
 
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 public interface ImageService {
     public static final int SPRITESHEET_TYPE = 1; // else is a regular image
@@ -15,6 +20,11 @@ public interface ImageService {
 
     public static final int NORMAL_TYPE = ImageService.LOCAL_STORAGE_TYPE | ImageService.ROOT_STORAGE_TYPE;
 
+    /**
+     * The frame number of a sprite variant that uses the whole image (not a sprite sheet frame).
+     */
+    public static final int WHOLE_IMAGE = -1;
+
     /**
      * Returns the set of ids that are images.
      * 
@@ -38,6 +48,76 @@ public interface ImageService {
      */
     public BufferedImage getImage(String identifier) throws IOException;
 
+    /**
+     * Gets an image without blocking the calling thread. The image is decoded
+     * on a background worker pool. Concurrent requests for the same image share
+     * one decode.
+     *
+     * @param identifier Unique identifier of the image as added
+     * @return a future that completes with the image, or exceptionally with an IOException
+     */
+    public CompletableFuture<BufferedImage> getImageAsync(String identifier);
+
+    /**
+     * Decodes many images in parallel so they are cached before they are needed.
+     *
+     * @param identifiers Unique identifiers of the images as added
+     * @return a future that completes when all the images are decoded
+     */
+    public CompletableFuture<Void> preload(Collection<String> identifiers);
+
+    /**
+     * Keeps the image from being evicted from the image cache.
+     * Every pinImage must be matched by an unpinImage when the image is no longer used.
+     *
+     * @param identifier Unique identifier of the image as added
+     */
+    public void pinImage(String identifier);
+
+    /**
+     * Undoes one pinImage. The image may then be evicted from the image cache.
+     *
+     * @param identifier Unique identifier of the image as added
+     */
+    public void unpinImage(String identifier);
+
+    /**
+     * Gets the hit, miss and eviction counters of the image cache.
+     *
+     * @return a copy of the current counters
+     */
+    public ImageCacheStats getCacheStats();
+
+    /**
+     * Gets a shared copy of an image (or of one frame of a sprite sheet) that is
+     * resized and optionally flipped. Every caller that asks for the same variant
+     * gets the same image, so it must not be drawn into.
+     *
+     * The variant is built with a high quality resize the first time it is asked for.
+     * Variants have a byte budget, so one that has not been asked for in a while
+     * may be dropped and built again later.
+     *
+     * @param imageId Unique identifier of the image or sprite sheet as added
+     * @param frame WHOLE_IMAGE, or the frame number in the sprite sheet (see SpriteSheetInfo.frameNumber)
+     * @param width The width to draw at
+     * @param height The height to draw at
+     * @param flipped true to flip horizontally (facing left)
+     * @return the shared, immutable variant
+     * @throws IOException if the image cannot be found/downloaded
+     */
+    public BufferedImage getSpriteVariant(String imageId, int frame, int width, int height, boolean flipped)
+            throws IOException;
+
+    /**
+     * Packs every sprite variant currently cached into a TextureAtlas. Call this after
+     * the level's entities are created, when the variants they draw exist.
+     * Each region is found by its SpriteVariantKey. The atlas does not keep the
+     * variant images, so they can still be evicted and collected.
+     *
+     * @return the packed atlas
+     */
+    public TextureAtlas buildTextureAtlas();
+
     /**
      * Adds image information to the service so that it can be properly managed.
      *
@@ -58,21 +138,64 @@ public interface ImageService {
     // public SpriteSheetInfo getSpriteSheetInfo(String id);
     // public boolean isAnimated(String id);
     /**
-     * Efficiently resize the image
+     * Resize the image with good quality.
+     *
+     * Shrinking by more than half in one bilinear step skips pixels and looks
+     * jagged, so the image is halved repeatedly until it is within 2x of the
+     * target, and the last step is bicubic. Growing is one bicubic step.
+     * This is too slow to do every frame. Do it once and keep the result.
      *
-     * @param originalImage
-     * @param targetWidth
-     * @param targetHeight
-     * @return
+     * @param originalImage The image to resize. It is not changed.
+     * @param targetWidth The new width
+     * @param targetHeight The new height
+     * @return A new TYPE_INT_ARGB_PRE image of the target size
      */
     public static BufferedImage resize(BufferedImage originalImage, int targetWidth, int targetHeight) {
-        // ***** STUDENT MUST IMPLEMENT THIS *****
-        return null;
+        BufferedImage image = originalImage;
+        int width = image.getWidth();
+        int height = image.getHeight();
+        do {
+            if (width > targetWidth * 2) {
+                width /= 2;
+            } else {
+                width = targetWidth;
+            }
+            if (height > targetHeight * 2) {
+                height /= 2;
+            } else {
+                height = targetHeight;
+            }
+            Object interpolation = (width == targetWidth && height == targetHeight)
+                    ? RenderingHints.VALUE_INTERPOLATION_BICUBIC
+                    : RenderingHints.VALUE_INTERPOLATION_BILINEAR;
+
+            BufferedImage step = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+            Graphics2D g = step.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, interpolation);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(image, 0, 0, width, height, null);
+            g.dispose();
+            image = step;
+        } while (width != targetWidth || height != targetHeight);
+
+        return image;
     }
 
+    /**
+     * Mirror the image left to right.
+     *
+     * @param originalImage The image to flip. It is not changed.
+     * @return A new TYPE_INT_ARGB_PRE image of the same size
+     */
     public static BufferedImage flipHorizontally(BufferedImage originalImage) {
-        // ***** STUDENT MUST IMPLEMENT THIS *****
-        return null;
+        int width = originalImage.getWidth();
+        int height = originalImage.getHeight();
+        BufferedImage flipped = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D g = flipped.createGraphics();
+        // draw from right to left
+        g.drawImage(originalImage, width, 0, -width, height, null);
+        g.dispose();
+        return flipped;
     }
 
     /**
@@ -83,6 +206,15 @@ public interface ImageService {
 
     public void addSheet(String id, SpriteSheetInfo ssi);
     public SpriteSheetInfo getSpriteSheetInfo(String id);
+
+    /**
+     * Asks to be told when an image or sprite sheet is replaced (re-added with
+     * different information). Anything built from the old pixels, such as sliced
+     * animation frames, should be dropped. The listener may be called on any thread.
+     *
+     * @param listener Called with the id of the image or sprite sheet that changed
+     */
+    public void addImageChangedListener(Consumer<String> listener);
     
     public boolean isAnimated(String id);
 
@@ -1,50 +1,198 @@
 package com.mrstride.services;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.awt.Image;
+import java.io.InterruptedIOException;
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.util.HashMap;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 
 import javax.imageio.ImageIO;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 @Service
 public class ImageServiceProvider implements ImageService {
 
+    /**
+     * The default byte budget of the image cache: 256 MB of pixel data.
+     * Override with images.cache.maxBytes in application.properties.
+     */
+    public static final long DEFAULT_CACHE_BYTES = 256L * 1024 * 1024;
+
+    /**
+     * The default byte budget of the sprite variants: 64 MB of pixel data.
+     * Override with images.variants.maxBytes in application.properties.
+     */
+    public static final long DEFAULT_VARIANT_BYTES = 64L * 1024 * 1024;
+
+    /**
+     * The number of threads that decode images for getImageAsync() and preload().
+     */
+    public static final int DECODE_THREADS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
     private Logger consoleLogger;
 
     /**
-     * Maps unique image identifier to ImageInfoRecord
+     * Whether decoded images are converted to a format that is fast to draw.
      */
-    private Map<String, ImageInfoRecord> images = new HashMap<>();
+    private volatile boolean convertImages = true;
 
-    private Map<String, SpriteSheetInfo> sheets = new HashMap<>();
+    /**
+     * Decoded pixels saved on disk from an earlier run. null when turned off.
+     */
+    private volatile DecodedImageDiskCache diskCache;
+
+    /**
+     * Downloads URL images into their local mirror.
+     */
+    private volatile ImageDownloader downloader = new ImageDownloader();
+
+    /**
+     * Decoded images live here, not in the ImageInfoRecords, so that
+     * memory use stays within a budget.
+     */
+    private final ImageCache cache = new ImageCache(DEFAULT_CACHE_BYTES);
+
+    /**
+     * Resized and flipped images shared by all the entities that draw them.
+     */
+    private final SpriteVariantCache variants = new SpriteVariantCache(DEFAULT_VARIANT_BYTES);
+
+    /**
+     * Told when an image or sprite sheet is replaced. See addImageChangedListener().
+     */
+    private final List<Consumer<String>> changedListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Decodes that are in progress. Anyone asking for an image that is being
+     * decoded waits on the same future instead of decoding it again.
+     */
+    private final ConcurrentHashMap<String, CompletableFuture<BufferedImage>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * The bounded pool of daemon threads used for asynchronous decoding.
+     */
+    private final ExecutorService decodePool = Executors.newFixedThreadPool(DECODE_THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "image-decode");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Maps unique image identifier to ImageInfoRecord.
+     * Concurrent so that any number of threads can look up images without
+     * locking while levels are being set up on other threads.
+     */
+    private final ConcurrentHashMap<String, ImageInfoRecord> images = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<String, SpriteSheetInfo> sheets = new ConcurrentHashMap<>();
 
     public ImageServiceProvider() {
         consoleLogger = LogManager.getLogger("console");
     }
 
+    /**
+     * Sets the byte budget of the image cache.
+     * 
+     * @param maxBytes The most bytes of decoded pixel data to keep in memory
+     */
+    @Value("${images.cache.maxBytes:" + DEFAULT_CACHE_BYTES + "}")
+    public void setCacheBudget(long maxBytes) {
+        cache.setMaxBytes(maxBytes);
+    }
+
+    /**
+     * Sets the byte budget of the resized and flipped sprite variants.
+     * 
+     * @param maxBytes The most bytes of variant pixel data to keep in memory
+     */
+    @Value("${images.variants.maxBytes:" + DEFAULT_VARIANT_BYTES + "}")
+    public void setVariantBudget(long maxBytes) {
+        variants.setMaxBytes(maxBytes);
+    }
+
+    /**
+     * Turns the conversion of decoded images to a fast-to-draw format on or off.
+     * See toCompatibleImage().
+     * 
+     * @param convertImages true to convert images after they are decoded
+     */
+    @Value("${images.convertCompatible:true}")
+    public void setConvertImages(boolean convertImages) {
+        this.convertImages = convertImages;
+    }
+
+    /**
+     * Turns on the on-disk cache of decoded images, so that PNGs are only
+     * decoded the first time the program runs. See DecodedImageDiskCache.
+     * 
+     * @param directory Where to keep the decoded images. Empty to turn the cache off.
+     */
+    @Value("${images.diskCache.dir:}")
+    public void setDiskCacheDirectory(String directory) {
+        if (directory == null || directory.isBlank()) {
+            diskCache = null;
+            return;
+        }
+        try {
+            diskCache = new DecodedImageDiskCache(Paths.get(directory));
+        } catch (IOException e) {
+            consoleLogger.error("Image disk cache is off. Cannot use {}: {}", directory, e.getMessage());
+            diskCache = null;
+        }
+    }
+
+    /**
+     * Replaces the downloader, for example with one whose HttpClient talks to a test server.
+     * 
+     * @param downloader The downloader to use for URL images
+     */
+    public void setImageDownloader(ImageDownloader downloader) {
+        this.downloader = downloader;
+    }
+
+    /**
+     * @return A copy of the image ids. It does not change when images are added.
+     */
     @Override
     public Set<String> getImages() {
-        return images.keySet();
+        return Set.copyOf(images.keySet());
     }
 
+    /**
+     * @return A copy of the sprite sheet ids. It does not change when sheets are added.
+     */
     @Override
     public Set<String> getSpriteSheets() {
-        return sheets.keySet();
+        return Set.copyOf(sheets.keySet());
     }
 
     /**
      * Gets the image that maps to the identifier.
      * 
-     * Once the Image is retrieved from the file, the image should be cached.
+     * Once the Image is retrieved from the file, the image is cached.
+     * The cache has a byte budget, so an image that has not been used in a
+     * while may be evicted and decoded again later unless it is pinned.
      * 
      * @param identifier The name of the image information
      * @return The BufferedImage of the image  
@@ -52,13 +200,191 @@ public class ImageServiceProvider implements ImageService {
      */
     @Override
     public BufferedImage getImage(String identifier) throws IOException {
-        // ***** STUDENT MUST IMPLEMENT THIS *****
-        throw new UnsupportedOperationException("Not implemented yet");
+        BufferedImage image = cache.get(identifier);
+        if (image != null) {
+            return image;
+        }
+
+        // decode on this thread, unless someone else is already decoding it
+        CompletableFuture<BufferedImage> decode = new CompletableFuture<>();
+        CompletableFuture<BufferedImage> existing = inFlight.putIfAbsent(identifier, decode);
+        if (existing == null) {
+            decodeInto(identifier, decode);
+        } else {
+            decode = existing;
+        }
+
+        try {
+            return decode.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for image: " + identifier);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Could not load image: " + identifier, e.getCause());
+        }
+    }
+
+    /**
+     * Gets the image without blocking. The image is decoded on the decode pool
+     * if it is not already cached. Asking for an image that is already being
+     * decoded returns the same future.
+     * 
+     * @param identifier The name of the image information
+     * @return A future that completes with the image, or with an IOException
+     */
+    @Override
+    public CompletableFuture<BufferedImage> getImageAsync(String identifier) {
+        BufferedImage image = cache.get(identifier);
+        if (image != null) {
+            return CompletableFuture.completedFuture(image);
+        }
+
+        CompletableFuture<BufferedImage> decode = new CompletableFuture<>();
+        CompletableFuture<BufferedImage> existing = inFlight.putIfAbsent(identifier, decode);
+        if (existing != null) {
+            return existing;
+        }
+        decodePool.execute(() -> decodeInto(identifier, decode));
+        return decode;
+    }
+
+    /**
+     * Decodes all of the images in parallel on the decode pool.
+     * 
+     * @param identifiers The images to decode
+     * @return A future that completes when all of them are decoded (or failed)
+     */
+    @Override
+    public CompletableFuture<Void> preload(Collection<String> identifiers) {
+        CompletableFuture<?>[] decodes = identifiers.stream()
+                .map(this::getImageAsync)
+                .toArray(CompletableFuture[]::new);
+        return CompletableFuture.allOf(decodes);
+    }
+
+    /**
+     * Loads the image, caches it and completes the future with it.
+     * A successful load is recorded as an ImageLoadEvent for Flight Recorder.
+     * The future is removed from inFlight only after the image is cached,
+     * so nobody can miss both.
+     * 
+     * Another decode may have cached the image between our cache miss and
+     * registering in inFlight, so the cache is checked once more first.
+     * If addImageInfo() replaces the id while we decode, the image we decoded
+     * is out of date and is not left in the cache.
+     * 
+     * @param identifier The name of the image information
+     * @param decode The future registered in inFlight for this identifier
+     */
+    private void decodeInto(String identifier, CompletableFuture<BufferedImage> decode) {
+        ImageLoadEvent event = new ImageLoadEvent();
+        event.begin();
+        try {
+            BufferedImage cached = cache.peek(identifier);
+            if (cached != null) {
+                decode.complete(cached);
+                return;
+            }
+
+            ImageInfoRecord iir = images.get(identifier);
+            if (iir == null) {
+                throw new IOException("No image information for id: " + identifier);
+            }
+            BufferedImage image = iir.isLocalFile() ? loadImageFromFile(iir) : loadImageFromUrl(iir);
+            if (convertImages) {
+                image = toCompatibleImage(image);
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.imageId = identifier;
+                event.source = iir.uri;
+                event.width = image.getWidth();
+                event.height = image.getHeight();
+                event.bytes = ImageCache.sizeOf(image);
+                event.commit();
+            }
+            // addImageInfo() changes images before it empties the cache. Checking and
+            // putting while the cache is locked means its remove() comes after our put,
+            // or our check sees the replacement and the old image is never cached.
+            cache.putIf(identifier, image, () -> images.get(identifier) == iir);
+            decode.complete(image);
+        } catch (IOException | RuntimeException e) {
+            decode.completeExceptionally(e);
+        } finally {
+            inFlight.remove(identifier, decode);
+        }
+    }
+
+    @Override
+    public BufferedImage getSpriteVariant(String imageId, int frame, int width, int height, boolean flipped)
+            throws IOException {
+        return variants.get(new SpriteVariantKey(imageId, frame, width, height, flipped), this::buildVariant);
+    }
+
+    /**
+     * Creates a variant. A flipped variant is made from the unflipped one, so that
+     * the resize is only done once for both directions.
+     * 
+     * @param key The variant to create
+     * @return The new variant
+     * @throws IOException if the image cannot be loaded
+     */
+    private BufferedImage buildVariant(SpriteVariantKey key) throws IOException {
+        if (key.flipped()) {
+            BufferedImage unflipped = getSpriteVariant(key.imageId(), key.frame(), key.width(), key.height(), false);
+            return finishVariant(ImageService.flipHorizontally(unflipped));
+        }
+
+        BufferedImage source;
+        if (key.frame() == ImageService.WHOLE_IMAGE) {
+            source = getImage(key.imageId());
+        } else {
+            // for a frame, the key's id is the sprite sheet, which names its image
+            SpriteSheetInfo ssi = sheets.get(key.imageId());
+            if (ssi == null) {
+                throw new IOException("No sprite sheet information for id: " + key.imageId());
+            }
+            source = getImage(ssi.imageId());
+            int[] rect = ssi.frameRect(key.frame());
+            // getSubimage shares the sheet's pixels. The resize below makes a copy.
+            source = source.getSubimage(rect[0], rect[1], rect[2], rect[3]);
+        }
+        return finishVariant(ImageService.resize(source, key.width(), key.height()));
+    }
+
+    @Override
+    public TextureAtlas buildTextureAtlas() {
+        return TextureAtlas.pack(variants.getBuiltVariants(), TextureAtlas.DEFAULT_PAGE_SIZE, convertImages);
+    }
+
+    private BufferedImage finishVariant(BufferedImage image) {
+        return convertImages ? toCompatibleImage(image) : image;
+    }
+
+    @Override
+    public void pinImage(String identifier) {
+        cache.pin(identifier);
+    }
+
+    @Override
+    public void unpinImage(String identifier) {
+        cache.unpin(identifier);
+    }
+
+    @Override
+    public ImageCacheStats getCacheStats() {
+        return cache.getStats();
     }
 
     /**
      * Image information is added for later storage and retrieval behavior
-     *      
+     * 
+     * Adding the same id with the same uri and type again does nothing, so
+     * several threads can register the images they need without coordinating.
+     * Adding an id with a different uri or type replaces it.
      * @param identifier A unique name for quick lookup and later retrieval
      * @param uri Could be "relativePath/to/image.jpg" or "https://a.b/image.jpg"
      * @param type Flags to determine if the image is cached locally, the resource directory,
@@ -67,12 +393,60 @@ public class ImageServiceProvider implements ImageService {
      */
     @Override
     public void addImageInfo(String id, String uri, int type) throws FileNotFoundException {
-        // ***** STUDENT MUST IMPLEMENT THIS *****
-        throw new UnsupportedOperationException("Not implemented yet");
+        ImageInfoRecord iir = new ImageInfoRecord(id, uri, type);
+        if (iir.isLocalFile() && !new File(iir.getAbsLocalPath()).exists()) {
+            throw new FileNotFoundException(iir.getAbsLocalPath());
+        }
+        ImageInfoRecord existing = images.putIfAbsent(id, iir);
+        if (existing == null) {
+            return;
+        }
+        if (existing.uri.equals(uri) && existing.type == type) {
+            // already registered. Keep the cached image.
+            return;
+        }
+        images.put(id, iir);
+
+        // if the id is being re-added, don't keep serving the old image,
+        // and don't hand out a decode of the old file that is still running
+        inFlight.remove(id);
+        cache.remove(id);
+        imageChanged(id);
+        // and the frames of the sprite sheets that use it
+        for (Map.Entry<String, SpriteSheetInfo> sheet : sheets.entrySet()) {
+            if (sheet.getValue().imageId().equals(id)) {
+                imageChanged(sheet.getKey());
+            }
+        }
     }
 
+    /**
+     * Adds sprite sheet information. Adding the same SpriteSheetInfo again does
+     * nothing. Adding a different one replaces it and drops its old frames.
+     */
     public void addSheet(String id, SpriteSheetInfo ssi) {
-        sheets.put(id, ssi);
+        SpriteSheetInfo existing = sheets.put(id, ssi);
+        if (existing != null && existing != ssi) {
+            imageChanged(id);
+        }
+    }
+
+    @Override
+    public void addImageChangedListener(Consumer<String> listener) {
+        changedListeners.add(listener);
+    }
+
+    /**
+     * Drops the variants built from the old image or sheet and tells the
+     * listeners, so they drop whatever they built from it, too.
+     * 
+     * @param id The image or sprite sheet that was replaced
+     */
+    private void imageChanged(String id) {
+        variants.removeImage(id);
+        for (Consumer<String> listener : changedListeners) {
+            listener.accept(id);
+        }
     }
 
     public SpriteSheetInfo getSpriteSheetInfo(String id) {
@@ -94,28 +468,104 @@ public class ImageServiceProvider implements ImageService {
     }
 
     /**
-     * Reads the png/jpg file for the given image and saves the BufferedImage into
-     * the ImageInfoRecord.
+     * Reads the png/jpg file for the given image, or its decoded pixels
+     * from the disk cache if they are there.
      * 
-     * @param iir The ImageInfoRecord to use to find the file and save the BufferedImage
-     * @return Image (the BufferedImage)
-     * @throws IOException
+     * @param iir The ImageInfoRecord to use to find the file
+     * @return The BufferedImage
+     * @throws IOException if the file cannot be read or is not an image
      */
-    private Image loadImageFromFile(ImageInfoRecord iir) throws IOException {
+    private BufferedImage loadImageFromFile(ImageInfoRecord iir) throws IOException {
         File file = new File(iir.getAbsLocalPath());
-        iir.image = ImageIO.read(file);
-        return iir.image;
+        DecodedImageDiskCache disk = diskCache;
+        if (disk != null) {
+            BufferedImage image = disk.load(file);
+            if (image != null) {
+                return image;
+            }
+        }
+
+        BufferedImage image = ImageIO.read(file);
+        if (image == null) {
+            throw new IOException("Not a readable image: " + file);
+        }
+
+        if (disk != null) {
+            try {
+                disk.store(file, image);
+            } catch (IOException e) {
+                // we still have the image. It will just be decoded again next time.
+                consoleLogger.warn("Could not save decoded image {}: {}", file, e.getMessage());
+            }
+        }
+        return image;
     }
 
     /**
-     * Loads the image from the URL
+     * Copies the image into the format that draws fastest on the screen.
+     * 
+     * ImageIO gives back whatever raster type the decoder chose (often 3 or 4
+     * separate bytes per pixel, or an indexed palette). Drawing one of those
+     * onto the screen converts every pixel on every frame. An image created by
+     * the screen's GraphicsConfiguration can be drawn with a straight copy, and
+     * Java2D may keep it in video memory.
+     * 
+     * When there is no screen (headless), TYPE_INT_ARGB_PRE is used instead. It is
+     * the format Java2D blends fastest in software.
+     * 
+     * @param image The decoded image
+     * @return The image itself if it is already compatible, otherwise a converted copy
+     */
+    public static BufferedImage toCompatibleImage(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        BufferedImage converted;
+        if (GraphicsEnvironment.isHeadless()) {
+            if (image.getType() == BufferedImage.TYPE_INT_ARGB_PRE) {
+                return image;
+            }
+            converted = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+        } else {
+            GraphicsConfiguration gc = GraphicsEnvironment.getLocalGraphicsEnvironment()
+                    .getDefaultScreenDevice().getDefaultConfiguration();
+            int transparency = image.getTransparency();
+            if (image.getColorModel().equals(gc.getColorModel(transparency))) {
+                return image;
+            }
+            converted = gc.createCompatibleImage(width, height, transparency);
+        }
+
+        // Src copies the pixels, including alpha, instead of blending them
+        Graphics2D g = converted.createGraphics();
+        g.setComposite(AlphaComposite.Src);
+        g.drawImage(image, 0, 0, null);
+        g.dispose();
+        return converted;
+    }
+
+    /**
+     * Loads the image from the URL.
+     * 
+     * With LOCAL_STORAGE_TYPE the image is kept in a local mirror at getAbsLocalPath().
+     * The mirror is revalidated with the server once per run and only downloaded
+     * again if it changed (see ImageDownloader). Otherwise the image is downloaded
+     * every time it is decoded.
+     * 
      * @param iir The ImageInfoRecord that contains information about the image
      * @return Image found at the URL
-     * @throws IOException
+     * @throws IOException if the image cannot be downloaded or is not an image
      */
-    private Image loadImageFromUrl(ImageInfoRecord iir) throws IOException {
-        // ***** STUDENT MUST IMPLEMENT THIS *****
-        throw new UnsupportedOperationException("Not implemented yet");
+    private BufferedImage loadImageFromUrl(ImageInfoRecord iir) throws IOException {
+        if (iir.saveLocally()) {
+            downloader.fetch(iir.uri, Paths.get(iir.getAbsLocalPath()));
+            return loadImageFromFile(iir);
+        }
+
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(downloader.download(iir.uri)));
+        if (image == null) {
+            throw new IOException("Not a readable image: " + iir.uri);
+        }
+        return image;
     }
     
 }
\ No newline at end of file
@@ -0,0 +1,207 @@
+package com.mrstride.services;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.mrstride.gui.Line;
+
+/**
+ * A uniform grid that buckets Lines by the cells their bounding box covers.
+ *
+ * The EntityManager adds every floor/wall to this grid so that an Entity only
+ * has to look at the Lines near it instead of every Line in the level.
+ *
+ * The cells are hashed into a fixed number of buckets (a spatial hash), so the
+ * level can be any size. Two cells may share a bucket, which only means a query
+ * can return a few extra lines. It never misses one.
+ *
+ * Lines are remembered by the order they were added. A query always returns
+ * the candidate Lines in that same order, without duplicates, so collision
+ * reactions happen in exactly the same order as walking the full list.
+ *
+ * Adding Lines is not thread-safe. Queries are thread-safe once all the
+ * Lines have been added, and they create no garbage.
+ */
+public class LineGrid {
+
+    /**
+     * The width and height of each cell in pixels. Big enough that an
+     * entity usually only touches a handful of cells.
+     */
+    public static final int CELL_SIZE = 128;
+
+    private static final int INITIAL_BUCKETS = 64;
+
+    /**
+     * All the lines in the order they were added. The index into this list
+     * is what the buckets store.
+     */
+    private final List<Line> lines = new ArrayList<>();
+
+    /**
+     * The cells covered by each line: { col0, row0, col1, row1 } per line.
+     * Kept so the buckets can be rebuilt when they grow.
+     */
+    private int[] lineCells = new int[4 * 16];
+
+    /**
+     * The indexes of the lines in each bucket, in increasing order.
+     */
+    private int[][] buckets;
+    private int[] bucketCounts;
+    private int entryCount;
+
+    /**
+     * Each thread gets its own scratch array for gathering ids so that queries
+     * can run in parallel without creating garbage.
+     */
+    private final ThreadLocal<int[]> scratch = ThreadLocal.withInitial(() -> new int[64]);
+
+    public LineGrid() {
+        clear();
+    }
+
+    public void clear() {
+        lines.clear();
+        buckets = new int[INITIAL_BUCKETS][];
+        bucketCounts = new int[INITIAL_BUCKETS];
+        entryCount = 0;
+    }
+
+    public int size() {
+        return lines.size();
+    }
+
+    /**
+     * Gets a line by the order it was added.
+     *
+     * @param index 0 to size()-1
+     * @return The line
+     */
+    public Line get(int index) {
+        return lines.get(index);
+    }
+
+    /**
+     * Add the line to every cell that its bounding box covers.
+     *
+     * @param line The line to add
+     */
+    public void add(Line line) {
+        int id = lines.size();
+        lines.add(line);
+
+        if (lineCells.length < 4 * (id + 1)) {
+            lineCells = Arrays.copyOf(lineCells, lineCells.length * 2);
+        }
+        lineCells[4 * id] = toCell(line.getMinX());
+        lineCells[4 * id + 1] = toCell(line.getMinY());
+        lineCells[4 * id + 2] = toCell(line.getMaxX());
+        lineCells[4 * id + 3] = toCell(line.getMaxY());
+
+        insert(id);
+
+        // keep the buckets from getting crowded
+        if (entryCount > 2 * buckets.length) {
+            rebuild(buckets.length * 4);
+        }
+    }
+
+    /**
+     * Find all the lines whose cells overlap the given area.
+     * The result may contain lines that do not actually touch the area,
+     * but it never misses one that does.
+     *
+     * @param area The area to look in (inclusive of its right and bottom edges)
+     * @param result Cleared and then filled with the candidate lines in the order they were added
+     */
+    public void query(Rectangle area, List<Line> result) {
+        result.clear();
+
+        int col0 = toCell(area.x);
+        int col1 = toCell((double) area.x + area.width);
+        int row0 = toCell(area.y);
+        int row1 = toCell((double) area.y + area.height);
+
+        // Gather the ids from each bucket. Lines spanning several cells (or cells
+        // sharing a bucket) show up more than once, so sort and skip the repeats.
+        int[] ids = scratch.get();
+        int count = 0;
+        int mask = buckets.length - 1;
+        for (int row = row0; row <= row1; row++) {
+            for (int col = col0; col <= col1; col++) {
+                int bucket = hash(col, row) & mask;
+                int n = bucketCounts[bucket];
+                if (n == 0) {
+                    continue;
+                }
+                if (count + n > ids.length) {
+                    ids = Arrays.copyOf(ids, Math.max(ids.length * 2, count + n));
+                    scratch.set(ids);
+                }
+                System.arraycopy(buckets[bucket], 0, ids, count, n);
+                count += n;
+            }
+        }
+        if (count == 0) {
+            return;
+        }
+
+        Arrays.sort(ids, 0, count);
+        int last = -1;
+        for (int i = 0; i < count; i++) {
+            if (ids[i] != last) {
+                last = ids[i];
+                result.add(lines.get(last));
+            }
+        }
+    }
+
+    private void insert(int id) {
+        int mask = buckets.length - 1;
+        for (int row = lineCells[4 * id + 1]; row <= lineCells[4 * id + 3]; row++) {
+            for (int col = lineCells[4 * id]; col <= lineCells[4 * id + 2]; col++) {
+                int bucket = hash(col, row) & mask;
+                int n = bucketCounts[bucket];
+                int[] ids = buckets[bucket];
+                if (ids == null) {
+                    ids = new int[4];
+                    buckets[bucket] = ids;
+                } else if (n > 0 && ids[n - 1] == id) {
+                    // another cell of this line already landed in this bucket
+                    continue;
+                } else if (n == ids.length) {
+                    ids = Arrays.copyOf(ids, n * 2);
+                    buckets[bucket] = ids;
+                }
+                ids[n] = id;
+                bucketCounts[bucket] = n + 1;
+                entryCount++;
+            }
+        }
+    }
+
+    /**
+     * Re-bucket every line into a bigger table. Lines are re-inserted in the
+     * order they were added so each bucket stays sorted.
+     */
+    private void rebuild(int bucketCount) {
+        buckets = new int[bucketCount][];
+        bucketCounts = new int[bucketCount];
+        entryCount = 0;
+        for (int id = 0; id < lines.size(); id++) {
+            insert(id);
+        }
+    }
+
+    private static int toCell(double coordinate) {
+        return (int) Math.floor(coordinate / CELL_SIZE);
+    }
+
+    private static int hash(int col, int row) {
+        int h = col * 0x9E3779B1 + row * 0x85EBCA6B;
+        return h ^ (h >>> 16);
+    }
+}
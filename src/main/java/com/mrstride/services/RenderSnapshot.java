@@ -0,0 +1,129 @@
+package com.mrstride.services;
+
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+import com.mrstride.entity.Entity;
+
+/**
+ * A copy of everything needed to paint the entities for one tick:
+ * position, size and the current image of each entity. The image is already
+ * the one for the direction the entity faces. If the entity's sprite variant is
+ * in the texture atlas, its region is copied instead of the image, so painting
+ * draws from the atlas page.
+ * The camera offset is copied too, so the world and the hero it follows are
+ * always drawn from the same tick.
+ *
+ * The physics thread fills one of these at the end of every tick and hands it
+ * to the GUI thread through the EntityManager's triple buffer. Once handed over,
+ * a snapshot is never written again until the GUI thread gives it back, so
+ * painting never sees an entity half way through its update.
+ *
+ * The arrays are reused and only grow, so a steady state tick creates no garbage.
+ */
+class RenderSnapshot {
+
+    private long sequence;
+    private int xOffset;
+    private int yOffset;
+    private int count;
+    private int[] x = new int[0];
+    private int[] y = new int[0];
+    private int[] width = new int[0];
+    private int[] height = new int[0];
+    private BufferedImage[] image = new BufferedImage[0];
+    private AtlasRegion[] region = new AtlasRegion[0];
+
+    long getSequence() {
+        return sequence;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    /**
+     * @return The camera's x-offset at the end of the tick
+     */
+    int getXOffset() {
+        return xOffset;
+    }
+
+    /**
+     * @return The camera's y-offset at the end of the tick
+     */
+    int getYOffset() {
+        return yOffset;
+    }
+
+    /**
+     * Copies the current drawing state of all the entities.
+     * Must only be called by the thread that owns this snapshot.
+     *
+     * @param entities The entities to copy, in draw order
+     * @param sequence Increasing number that identifies this tick
+     * @param atlas Where to look for the images in an atlas. May be null.
+     * @param xOffset The camera's x-offset at the end of the tick
+     * @param yOffset The camera's y-offset at the end of the tick
+     */
+    void capture(EntityStore entities, long sequence, TextureAtlas atlas, int xOffset, int yOffset) {
+        int size = entities.size();
+        if (size > x.length) {
+            int capacity = Math.max(size, x.length * 2);
+            x = Arrays.copyOf(x, capacity);
+            y = Arrays.copyOf(y, capacity);
+            width = Arrays.copyOf(width, capacity);
+            height = Arrays.copyOf(height, capacity);
+            image = Arrays.copyOf(image, capacity);
+            region = Arrays.copyOf(region, capacity);
+        }
+
+        for (int i = 0; i < size; i++) {
+            Entity entity = entities.get(i);
+            Rectangle rect = entity.getBoundingRect();
+            x[i] = rect.x;
+            y[i] = rect.y;
+            width[i] = rect.width;
+            height[i] = rect.height;
+            SpriteVariantKey key = (atlas == null) ? null : entity.getCurrentVariant();
+            region[i] = (key == null) ? null : atlas.getRegion(key);
+            image[i] = (region[i] == null) ? entity.getCurrentImage() : null;
+        }
+
+        // don't hold on to images of entities that were removed
+        if (count > size) {
+            Arrays.fill(image, size, count, null);
+            Arrays.fill(region, size, count, null);
+        }
+        this.count = size;
+        this.xOffset = xOffset;
+        this.yOffset = yOffset;
+        this.sequence = sequence;
+    }
+
+    /**
+     * Draws every entity in the snapshot that overlaps the viewport.
+     *
+     * @param g Graphics to draw into
+     * @param viewport The visible area in world coordinates
+     */
+    void draw(Graphics g, Rectangle viewport) {
+        int left = viewport.x;
+        int top = viewport.y;
+        int right = viewport.x + viewport.width;
+        int bottom = viewport.y + viewport.height;
+
+        for (int i = 0; i < count; i++) {
+            if (x[i] + width[i] <= left || x[i] >= right || y[i] + height[i] <= top || y[i] >= bottom) {
+                continue;
+            }
+            if (region[i] != null) {
+                region[i].draw(g, x[i] - left, y[i] - top);
+            } else {
+                Entity.drawSprite(g, image[i], x[i] - left, y[i] - top, width[i], height[i]);
+            }
+        }
+    }
+}
@@ -22,4 +22,57 @@ public record SpriteSheetInfo(
     int[] animationSpeed,   // { count of ticks before moving to next frame for each mode }
     int[][] modeOrigins,    // { {x, y} ... } of origin for a mode. null if mode not supported
     int[][] rects)          // { {x, y, width, height} } specific position of usable image in frame
-    { }
+{
+    /**
+     * Frames are numbered across all the modes: all the frames of mode 0,
+     * then all the frames of mode 1, and so on.
+     * 
+     * @return The total number of frames in the sheet
+     */
+    public int frameCount() {
+        int count = 0;
+        for (int n : frames) {
+            count += n;
+        }
+        return count;
+    }
+
+    /**
+     * Gets the number of a frame of a mode, counting across all the modes.
+     * 
+     * @param mode One of the Animation.MODE_ constants
+     * @param index The index of the frame within the mode
+     * @return The frame number across all modes
+     */
+    public int frameNumber(int mode, int index) {
+        int frame = index;
+        for (int m = 0; m < mode; m++) {
+            frame += frames[m];
+        }
+        return frame;
+    }
+
+    /**
+     * Gets where the frame is in the sprite sheet image.
+     * 
+     * The frames of a mode are side by side, starting at the mode's origin.
+     * If the mode has a rect, only that part of each frame is used.
+     * 
+     * @param frame The frame number across all modes (see frameNumber)
+     * @return The { x, y, width, height } of the frame in the sheet
+     */
+    public int[] frameRect(int frame) {
+        int mode = 0;
+        while (frame >= frames[mode]) {
+            frame -= frames[mode];
+            mode++;
+        }
+        int x = modeOrigins[mode][0] + frame * size[0];
+        int y = modeOrigins[mode][1];
+        if (rects != null && rects[mode] != null) {
+            int[] r = rects[mode];
+            return new int[] { x + r[0], y + r[1], r[2], r[3] };
+        }
+        return new int[] { x, y, size[0], size[1] };
+    }
+}
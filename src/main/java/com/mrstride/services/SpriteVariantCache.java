@@ -0,0 +1,210 @@
+package com.mrstride.services;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Resized and flipped copies of images, shared by every Entity that draws
+ * the same image at the same size.
+ *
+ * A hundred coins of the same size all draw the same variant instead of each
+ * holding its own resized left and right copies. Variants are built the first
+ * time they are asked for and never change after that.
+ *
+ * Variants have their own byte budget, separate from the ImageCache. When a new
+ * variant goes over the budget, the least recently used variants are dropped.
+ * Entities that already hold a dropped variant keep drawing it; the next Entity
+ * that asks for it gets a freshly built one. Variants are also removed when
+ * their image is re-added to the ImageService.
+ *
+ * Thread-safe. Two threads asking for the same missing variant build it once.
+ * Like the ImageCache, a hit does not lock. Adding and evicting are synchronized.
+ */
+public class SpriteVariantCache {
+
+    private long maxBytes;
+    private long bytes;
+    private long evictions;
+
+    /**
+     * Builds a variant that is not in the cache yet.
+     */
+    @FunctionalInterface
+    public interface Builder {
+        BufferedImage build(SpriteVariantKey key) throws IOException;
+    }
+
+    /**
+     * A variant (built or being built) and when it was last used.
+     * size is 0 until the variant is built and counted in bytes.
+     */
+    private static class Entry {
+        final CompletableFuture<BufferedImage> variant = new CompletableFuture<>();
+        long size;
+        volatile long lastUsed = System.nanoTime();
+    }
+
+    private final ConcurrentHashMap<SpriteVariantKey, Entry> variants = new ConcurrentHashMap<>();
+
+    public SpriteVariantCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Gets the variant, building it with the builder if it is not cached.
+     * The builder is called without any lock held, so it may ask this cache
+     * for other variants (for example, the unflipped one to flip).
+     *
+     * @param key Which variant
+     * @param builder Creates the variant if needed
+     * @return The shared variant. Do not draw into it.
+     * @throws IOException if the builder failed
+     */
+    public BufferedImage get(SpriteVariantKey key, Builder builder) throws IOException {
+        Entry entry = variants.get(key);
+        if (entry == null) {
+            Entry build = new Entry();
+            entry = variants.putIfAbsent(key, build);
+            if (entry == null) {
+                entry = build;
+                try {
+                    BufferedImage image = builder.build(key);
+                    added(key, build, image);
+                    build.variant.complete(image);
+                } catch (IOException | RuntimeException e) {
+                    // don't remember failures. The next caller tries again.
+                    variants.remove(key, build);
+                    build.variant.completeExceptionally(e);
+                }
+            }
+        }
+        entry.lastUsed = System.nanoTime();
+        CompletableFuture<BufferedImage> variant = entry.variant;
+
+        try {
+            return variant.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for variant: " + key);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Could not build variant: " + key, e.getCause());
+        }
+    }
+
+    /**
+     * Forgets all the variants of the image.
+     *
+     * @param imageId The image id
+     */
+    public synchronized void removeImage(String imageId) {
+        variants.entrySet().removeIf(e -> {
+            if (e.getKey().imageId().equals(imageId)) {
+                bytes -= e.getValue().size;
+                e.getValue().size = 0;
+                return true;
+            }
+            return false;
+        });
+    }
+
+    /**
+     * Gets all the variants that are finished building.
+     *
+     * @return A new map of the finished variants
+     */
+    public Map<SpriteVariantKey, BufferedImage> getBuiltVariants() {
+        Map<SpriteVariantKey, BufferedImage> built = new HashMap<>();
+        variants.forEach((key, entry) -> {
+            CompletableFuture<BufferedImage> variant = entry.variant;
+            if (variant.isDone() && !variant.isCompletedExceptionally()) {
+                built.put(key, variant.join());
+            }
+        });
+        return built;
+    }
+
+    /**
+     * Changes the budget, dropping variants if the new budget is smaller.
+     *
+     * @param maxBytes The most bytes of pixel data to keep in variants
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        evictToBudget(null);
+    }
+
+    /**
+     * @return The number of variants built (or being built)
+     */
+    public int size() {
+        return variants.size();
+    }
+
+    /**
+     * @return The bytes of pixel data in the built variants
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Counts a newly built variant and evicts others if that puts us over budget.
+     * The variant may have been removed by removeImage() while it was being built.
+     * Then it is not counted, since it is no longer in the map.
+     */
+    private synchronized void added(SpriteVariantKey key, Entry entry, BufferedImage image) {
+        if (variants.get(key) != entry) {
+            return;
+        }
+        entry.size = ImageCache.sizeOf(image);
+        bytes += entry.size;
+        evictToBudget(entry);
+    }
+
+    /**
+     * Evict the least recently used built variants until we are within budget.
+     * The variant just built is kept, even if it alone is over the budget,
+     * so that the caller that built it can use it.
+     */
+    private void evictToBudget(Entry keep) {
+        if (bytes <= maxBytes) {
+            return;
+        }
+
+        // Copy lastUsed before sorting. Hits keep changing it without the lock.
+        record Candidate(SpriteVariantKey key, Entry entry, long lastUsed) { }
+        List<Candidate> candidates = new ArrayList<>();
+        for (Map.Entry<SpriteVariantKey, Entry> e : variants.entrySet()) {
+            Entry entry = e.getValue();
+            if (entry != keep && entry.size > 0) {
+                candidates.add(new Candidate(e.getKey(), entry, entry.lastUsed));
+            }
+        }
+        candidates.sort(Comparator.comparingLong(Candidate::lastUsed));
+
+        for (int i = 0; i < candidates.size() && bytes > maxBytes; i++) {
+            Candidate candidate = candidates.get(i);
+            if (variants.remove(candidate.key(), candidate.entry())) {
+                bytes -= candidate.entry().size;
+                candidate.entry().size = 0;
+                evictions++;
+            }
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.mrstride.services;
+
+/*
+ * Identifies one prepared copy of an image: a frame, at a size, facing a direction.
+ *
+ * frame is ImageService.WHOLE_IMAGE for a plain image, or the frame number in
+ * the sprite sheet (see SpriteSheetInfo.frameNumber).
+ */
+public record SpriteVariantKey(
+    String imageId,         // the name of the ID in the image service
+    int frame,              // WHOLE_IMAGE or the frame number in the sprite sheet
+    int width,              // the width to draw at
+    int height,             // the height to draw at
+    boolean flipped)        // true = flipped horizontally (facing left)
+    { }
@@ -0,0 +1,155 @@
+package com.mrstride.services;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Many small sprites copied into a few large images (pages).
+ *
+ * Drawing a busy scene from hundreds of separate images switches the source
+ * surface on every drawImage call. Drawing them all from one page keeps the
+ * source in the cache (or in video memory when the page is accelerated) and
+ * avoids the per-image overhead of hundreds of small BufferedImages.
+ *
+ * Sprites are packed with a shelf packer: tallest first, left to right in rows
+ * ("shelves"), starting a new page when a page is full. A sprite bigger than a
+ * page is not packed and has no region.
+ *
+ * Regions are looked up by the SpriteVariantKey the sprite was packed with.
+ * The atlas does not keep the images it packed, so once nothing else uses a
+ * packed variant (the SpriteVariantCache evicts it and no Entity draws it) its
+ * pixels can be garbage collected. Only the copy in the page remains.
+ *
+ * The atlas never changes after it is packed, so any thread can look up regions.
+ */
+public class TextureAtlas {
+
+    /**
+     * The default width and height of a page. 2048 is within what every
+     * graphics card can hold as one texture.
+     */
+    public static final int DEFAULT_PAGE_SIZE = 2048;
+
+    /**
+     * Empty pixels between sprites, so that a sprite drawn with filtering
+     * does not pick up the edge of its neighbor.
+     */
+    public static final int PADDING = 1;
+
+    private final List<BufferedImage> pages;
+    private final Map<SpriteVariantKey, AtlasRegion> regions;
+
+    private TextureAtlas(List<BufferedImage> pages, Map<SpriteVariantKey, AtlasRegion> regions) {
+        this.pages = Collections.unmodifiableList(pages);
+        this.regions = regions;
+    }
+
+    /**
+     * Packs the images into pages.
+     *
+     * @param images The sprites to pack by variant. The images are copied, not changed or kept.
+     * @param pageSize The width and height of each page
+     * @param convert true to convert each page with ImageServiceProvider.toCompatibleImage()
+     * @return The packed atlas
+     */
+    public static TextureAtlas pack(Map<SpriteVariantKey, BufferedImage> images, int pageSize, boolean convert) {
+        // tallest first keeps the shelves tight
+        List<Map.Entry<SpriteVariantKey, BufferedImage>> entries = new ArrayList<>(images.entrySet());
+        entries.sort((a, b) -> Integer.compare(b.getValue().getHeight(), a.getValue().getHeight()));
+
+        // first decide where everything goes
+        List<int[]> places = new ArrayList<>();     // { page, x, y } for each entry. null if too big
+        List<Integer> pageHeights = new ArrayList<>();
+        int page = -1;
+        int shelfX = pageSize;
+        int shelfY = 0;
+        int shelfHeight = 0;
+        for (Map.Entry<SpriteVariantKey, BufferedImage> entry : entries) {
+            int width = entry.getValue().getWidth();
+            int height = entry.getValue().getHeight();
+            if (width > pageSize || height > pageSize) {
+                places.add(null);
+                continue;
+            }
+            if (shelfX + width > pageSize) {
+                // start a new shelf
+                shelfY += shelfHeight + PADDING;
+                shelfX = 0;
+                shelfHeight = 0;
+            }
+            if (page < 0 || shelfY + height > pageSize) {
+                // start a new page
+                page++;
+                pageHeights.add(0);
+                shelfX = 0;
+                shelfY = 0;
+                shelfHeight = 0;
+            }
+            places.add(new int[] { page, shelfX, shelfY });
+            shelfX += width + PADDING;
+            shelfHeight = Math.max(shelfHeight, height);
+            pageHeights.set(page, Math.max(pageHeights.get(page), shelfY + height));
+        }
+
+        // then copy the sprites into pages that are only as tall as they need to be
+        List<BufferedImage> pages = new ArrayList<>();
+        List<Graphics2D> graphics = new ArrayList<>();
+        for (int height : pageHeights) {
+            BufferedImage image = new BufferedImage(pageSize, height, BufferedImage.TYPE_INT_ARGB_PRE);
+            Graphics2D g = image.createGraphics();
+            g.setComposite(AlphaComposite.Src);
+            pages.add(image);
+            graphics.add(g);
+        }
+        for (int i = 0; i < entries.size(); i++) {
+            int[] place = places.get(i);
+            if (place != null) {
+                graphics.get(place[0]).drawImage(entries.get(i).getValue(), place[1], place[2], null);
+            }
+        }
+        for (int p = 0; p < pages.size(); p++) {
+            graphics.get(p).dispose();
+            if (convert) {
+                pages.set(p, ImageServiceProvider.toCompatibleImage(pages.get(p)));
+            }
+        }
+
+        Map<SpriteVariantKey, AtlasRegion> regions = new HashMap<>();
+        for (int i = 0; i < entries.size(); i++) {
+            int[] place = places.get(i);
+            if (place == null) {
+                continue;
+            }
+            BufferedImage image = entries.get(i).getValue();
+            AtlasRegion region = new AtlasRegion(pages.get(place[0]), place[1], place[2],
+                    image.getWidth(), image.getHeight());
+            regions.put(entries.get(i).getKey(), region);
+        }
+        return new TextureAtlas(pages, regions);
+    }
+
+    /**
+     * @param key The variant the sprite was packed as
+     * @return Where the sprite is, or null if it was not packed
+     */
+    public AtlasRegion getRegion(SpriteVariantKey key) {
+        return regions.get(key);
+    }
+
+    public List<BufferedImage> getPages() {
+        return pages;
+    }
+
+    /**
+     * @return The number of sprites that were packed
+     */
+    public int size() {
+        return regions.size();
+    }
+}
@@ -0,0 +1,24 @@
+package com.mrstride.services;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder event for one physics tick (one call to AnimationPanel.update()).
+ * The event's duration is how long the tick took.
+ */
+@Name("com.mrstride.Tick")
+@Label("Game Tick")
+@Category({ "Platform Student", "Game Loop" })
+@Description("One physics update of the game loop")
+@StackTrace(false)
+public class TickEvent extends Event {
+
+    @Label("Catching Up")
+    @Description("The tick ran late, back to back with the one before, to catch up")
+    public boolean catchingUp;
+}
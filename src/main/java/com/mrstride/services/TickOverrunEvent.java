@@ -0,0 +1,34 @@
+package com.mrstride.services;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder event for when the fixed timestep loop fell behind and
+ * had to run extra ticks (or drop some) to catch up.
+ */
+@Name("com.mrstride.TickOverrun")
+@Label("Tick Overrun")
+@Category({ "Platform Student", "Game Loop" })
+@Description("The game loop fell behind real time")
+@StackTrace(false)
+public class TickOverrunEvent extends Event {
+
+    @Label("Updates")
+    @Description("Updates run back to back in this pass of the loop")
+    public int updates;
+
+    @Label("Dropped")
+    @Description("Ticks skipped in this pass because the loop was too far behind")
+    public long dropped;
+
+    @Label("Total Late")
+    public long totalLate;
+
+    @Label("Total Dropped")
+    public long totalDropped;
+}
@@ -0,0 +1,140 @@
+package com.mrstride.entity;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.geom.Rectangle2D;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.mrstride.gui.Line;
+
+/**
+ * Checks that MovingEntity.pushUpDistance() gives the same answer as the loop
+ * onHitFloor() used before it, which pushed the rectangle up 1 pixel at a time.
+ */
+public class PushUpDistanceTest {
+
+    private static final int CASES = 20_000;
+
+    /**
+     * The old loop from onHitFloor(), without the logging.
+     */
+    private static int pushUpOnePixelAtATime(Line floor, Rectangle2D.Double rect) {
+        int moves = 0;
+        do {
+            // push the rectangle up until it doesn't hit anymore
+            rect.y -= 1;
+
+            if (++moves > MovingEntity.MOVE_ERROR_COUNT) {
+                break;
+            }
+        } while (floor.intersectsRect(rect));
+        return moves;
+    }
+
+    /**
+     * Random rectangles around the top of the floor, from a little above it
+     * to deeper than MOVE_ERROR_COUNT below it. Like the union rectangles the
+     * game passes to onHitFloor(), they are on whole pixels and they intersect
+     * the floor. Rectangles that miss the floor are skipped.
+     *
+     * @return How many of the rectangles had to be pushed up more than MOVE_ERROR_COUNT
+     */
+    private static int compareWithTheOldLoop(Line floor, long seed) {
+        Random random = new Random(seed);
+        int span = (int) (floor.getMaxX() - floor.getMinX());
+        int compared = 0;
+        int capped = 0;
+        for (int i = 0; i < CASES; i++) {
+            int width = 1 + random.nextInt(60);
+            int height = 1 + random.nextInt(80);
+            int x = (int) floor.getMinX() - width + random.nextInt(span + width + 1);
+            int top = (int) floor.minYOver(x, x + width);
+            int y = top - height + random.nextInt(MovingEntity.MOVE_ERROR_COUNT + 20) - 5;
+
+            Rectangle2D.Double rect = new Rectangle2D.Double(x, y, width, height);
+            if (!floor.intersectsRect(rect)) {
+                continue;
+            }
+            int moves = MovingEntity.pushUpDistance(floor, rect);
+            assertEquals(y, rect.y, "pushUpDistance() moved the rectangle");
+
+            assertEquals(pushUpOnePixelAtATime(floor, rect), moves, rect + " on " + floor);
+            compared++;
+            if (moves > MovingEntity.MOVE_ERROR_COUNT) {
+                capped++;
+            }
+        }
+        assertTrue(compared > CASES / 4, "only " + compared + " rectangles hit " + floor);
+        return capped;
+    }
+
+    @Test
+    public void flatFloor() {
+        assertTrue(compareWithTheOldLoop(new Line(0, 600, 400, 600), 1) > 0, "never hit the limit");
+    }
+
+    @Test
+    public void slopedFloor() {
+        compareWithTheOldLoop(new Line(0, 600, 400, 680), 2);
+        compareWithTheOldLoop(new Line(0, 680, 400, 600), 3);
+    }
+
+    @Test
+    public void steepFloor() {
+        compareWithTheOldLoop(new Line(0, 300, 100, 600), 4);
+        compareWithTheOldLoop(new Line(0, 600, 100, 300), 5);
+    }
+
+    @Test
+    public void verticalLine() {
+        compareWithTheOldLoop(new Line(200, 300, 200, 600), 6);
+    }
+
+    @Test
+    public void tooDeepStopsAfterMoveErrorCount() {
+        Line floor = new Line(0, 600, 400, 600);
+        // the bottom is 30 pixels under the floor
+        Rectangle2D.Double rect = new Rectangle2D.Double(100, 590, 20, 40);
+
+        int moves = MovingEntity.pushUpDistance(floor, rect);
+        assertEquals(MovingEntity.MOVE_ERROR_COUNT + 1, moves);
+        assertEquals(pushUpOnePixelAtATime(floor, rect), moves);
+    }
+
+    @Test
+    public void minAndMaxYOverMatchTheLineUnderTheRange() {
+        Line[] lines = {
+            new Line(0, 600, 400, 600), new Line(0, 600, 400, 680),
+            new Line(0, 600, 100, 300), new Line(200, 300, 200, 600) };
+        Random random = new Random(7);
+        for (Line line : lines) {
+            for (int i = 0; i < 1_000; i++) {
+                int span = (int) (line.getMaxX() - line.getMinX());
+                int left = (int) line.getMinX() - 30 + random.nextInt(span + 31);
+                int right = left + random.nextInt(60);
+                if (right < line.getMinX() || left > line.getMaxX()) {
+                    continue;
+                }
+                // the highest and lowest points of the line between left and right, a pixel at a time
+                double min = Double.MAX_VALUE;
+                double max = -Double.MAX_VALUE;
+                if (line.getMinX() == line.getMaxX()) {
+                    min = line.getMinY();
+                    max = line.getMaxY();
+                } else {
+                    int from = Math.max(left, (int) line.getMinX());
+                    int to = Math.min(right, (int) line.getMaxX());
+                    for (int x = from; x <= to; x++) {
+                        min = Math.min(min, line.yAt(x));
+                        max = Math.max(max, line.yAt(x));
+                    }
+                }
+                assertEquals(min, line.minYOver(left, right), 1e-9, left + " to " + right + " on " + line);
+                assertEquals(max, line.maxYOver(left, right), 1e-9, left + " to " + right + " on " + line);
+            }
+        }
+    }
+}
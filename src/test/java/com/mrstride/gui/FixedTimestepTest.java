@@ -0,0 +1,66 @@
+package com.mrstride.gui;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+public class FixedTimestepTest {
+
+    private static final long TICK = 10_000_000L;
+    private static final int MAX = AnimationPanel.MAX_CATCH_UP_TICKS;
+
+    private static void assertStep(FixedTimestep step, int updates, long dropped, long accumulator) {
+        assertEquals(updates, step.getUpdates(), "updates");
+        assertEquals(dropped, step.getDropped(), "dropped");
+        assertEquals(accumulator, step.getAccumulator(), "accumulator");
+    }
+
+    @Test
+    public void lessThanATickRunsNothing() {
+        FixedTimestep step = new FixedTimestep(TICK, MAX);
+        step.advance(TICK - 1);
+        assertStep(step, 0, 0, TICK - 1);
+    }
+
+    @Test
+    public void oneTickRunsOneUpdate() {
+        FixedTimestep step = new FixedTimestep(TICK, MAX);
+        step.advance(TICK);
+        assertStep(step, 1, 0, 0);
+    }
+
+    @Test
+    public void aFewTicksBehindCatchesUp() {
+        FixedTimestep step = new FixedTimestep(TICK, MAX);
+        step.advance((MAX - 2) * TICK + 123);
+        assertStep(step, MAX - 2, 0, 123);
+
+        step.advance(MAX * TICK);
+        assertStep(step, MAX, 0, 123);
+    }
+
+    @Test
+    public void tooFarBehindDropsTicksButKeepsTheRemainder() {
+        FixedTimestep step = new FixedTimestep(TICK, MAX);
+        step.advance((MAX + 7) * TICK + 456);
+        assertStep(step, MAX, 7, 456);
+
+        // caught up again: the next tick is on time
+        step.advance(TICK);
+        assertStep(step, 1, 0, 456);
+    }
+
+    @Test
+    public void remainderCarriesIntoTheNextStep() {
+        FixedTimestep step = new FixedTimestep(TICK, MAX);
+        step.advance(TICK * 6 / 10);
+        assertStep(step, 0, 0, TICK * 6 / 10);
+
+        // the two parts together make a tick
+        step.advance(TICK * 6 / 10);
+        assertStep(step, 1, 0, TICK * 2 / 10);
+
+        step.advance(TICK * 8 / 10);
+        assertStep(step, 1, 0, 0);
+    }
+}
@@ -0,0 +1,148 @@
+package com.mrstride.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+import org.junit.jupiter.api.Test;
+
+import com.mrstride.entity.Entity;
+import com.mrstride.entity.FallingEntity;
+import com.mrstride.gui.Line;
+
+import jdk.jfr.Recording;
+
+/**
+ * Checks that a steady state tick creates no garbage: MovingEntity.update() and
+ * EntityManager.moveAllObjects(), including their Flight Recorder events.
+ *
+ * Each check is run twice. Once right after a short warm up, while the code is
+ * still mostly interpreted and nothing is removed by escape analysis, and once
+ * after a long warm up, when it is compiled.
+ *
+ * Garbage made every tick shows up in every window of ticks that is measured.
+ * One-off allocations, such as loading a class the first time a path is taken,
+ * or the JIT undoing an optimization, do not. So the quietest of a few windows
+ * is what has to be 0.
+ */
+public class AllocationTest {
+
+    private static final int SHORT_WARM_UP = 2_000;
+    private static final int LONG_WARM_UP = 20_000;
+    private static final int TICKS = 1_000;
+    private static final int WINDOWS = 5;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /**
+     * A falling entity that paces back and forth, so that it walks on floors
+     * instead of only standing on one.
+     */
+    private static class Walker extends FallingEntity {
+        private int ticks;
+        private int direction = 1;
+
+        Walker(int x, int y) {
+            super("walker", x, y, 30, 40, null);
+        }
+
+        @Override
+        protected void updateVelocities() {
+            super.updateVelocities();
+            if (++ticks >= 100) {
+                ticks = 0;
+                direction = -direction;
+            }
+            xVelocity = 2 * direction;
+        }
+    }
+
+    /**
+     * The fewest bytes allocated by this thread in any of the windows of ticks,
+     * less what measuring allocates by itself.
+     */
+    private static long allocatedBy(Runnable tick) {
+        long least = Long.MAX_VALUE;
+        for (int w = 0; w < WINDOWS; w++) {
+            long start = THREADS.getCurrentThreadAllocatedBytes();
+            long overhead = THREADS.getCurrentThreadAllocatedBytes() - start;
+
+            start = THREADS.getCurrentThreadAllocatedBytes();
+            for (int i = 0; i < TICKS; i++) {
+                tick.run();
+            }
+            least = Math.min(least, THREADS.getCurrentThreadAllocatedBytes() - start - overhead);
+        }
+        return least;
+    }
+
+    private static void assertNoGarbage(String what, Runnable tick) {
+        for (int i = 0; i < SHORT_WARM_UP; i++) {
+            tick.run();
+        }
+        assertEquals(0, allocatedBy(tick), what + " after a short warm up");
+
+        for (int i = 0; i < LONG_WARM_UP; i++) {
+            tick.run();
+        }
+        assertEquals(0, allocatedBy(tick), what + " after a long warm up");
+    }
+
+    private static void checkMovingEntities() {
+        List<Line> flat = new ArrayList<>(List.of(new Line(0, 600, 4000, 600)));
+        List<Line> sloped = new ArrayList<>(List.of(new Line(0, 600, 4000, 1400)));
+        Queue<Entity> toAdd = new ArrayDeque<>();
+
+        FallingEntity standing = new FallingEntity("standing", 2000, 500, 30, 40, null);
+        Walker walker = new Walker(2000, 900);
+        standing.init();
+        walker.init();
+
+        assertNoGarbage("MovingEntity.update()", () -> {
+            standing.update(flat, toAdd);
+            walker.update(sloped, toAdd);
+        });
+    }
+
+    private static void checkEntityManager() {
+        EntityManager manager = new EntityManager();
+        manager.addFloor(new Line(0, 600, 4000, 600));
+        manager.addFloor(new Line(4000, 600, 6000, 900));
+        manager.addFloor(new Line(0, 0, 0, 600));
+        for (int i = 0; i < 50; i++) {
+            Entity entity = (i % 2 == 0) ? new Walker(100 + i * 100, 400)
+                : new FallingEntity("faller" + i, 100 + i * 100, 400, 20, 30, null);
+            entity.init();
+            manager.addEntity(entity);
+        }
+
+        assertNoGarbage("EntityManager.moveAllObjects()", manager::moveAllObjects);
+    }
+
+    @Test
+    public void movingEntityUpdateCreatesNoGarbage() {
+        checkMovingEntities();
+    }
+
+    @Test
+    public void moveAllObjectsCreatesNoGarbage() {
+        checkEntityManager();
+    }
+
+    @Test
+    public void noGarbageWhileRecordingWithCollisionEventsOff() {
+        // Flight Recorder running, with the game's events at their defaults
+        try (Recording recording = new Recording()) {
+            recording.enable(TickEvent.class);
+            recording.enable(EntityUpdateEvent.class);
+            recording.start();
+            checkMovingEntities();
+            checkEntityManager();
+        }
+    }
+}
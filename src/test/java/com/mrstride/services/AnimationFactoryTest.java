@@ -0,0 +1,97 @@
+package com.mrstride.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class AnimationFactoryTest {
+
+    private ImageServiceProvider images;
+    private AnimationFactory factory;
+
+    /**
+     * A sheet of square frames cut from the top row of an image, all in MODE_STILL.
+     */
+    private static SpriteSheetInfo sheet(String imageId, int frames) {
+        return new SpriteSheetInfo(imageId, new int[] { 50, 50 }, new boolean[] { true },
+            new int[] { frames }, new int[] { 1 }, new int[][] { { 0, 0 } }, null);
+    }
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        images = new ImageServiceProvider();
+        images.addImageInfo("cloud", "cloud.png", ImageService.NORMAL_TYPE);
+        images.addImageInfo("coin", "bronze_coin.png", ImageService.NORMAL_TYPE);
+        images.addSheet("puff", sheet("cloud", 2));
+        images.addSheet("spin", sheet("coin", 6));
+        factory = new AnimationFactory(images);
+    }
+
+    @Test
+    public void framesAreSharedBySheetAndSize() throws Exception {
+        AnimationFrames frames = factory.getFrames("puff", 20, 20);
+        assertSame(frames, factory.getFrames("puff", 20, 20));
+        assertNotSame(frames, factory.getFrames("puff", 30, 30));
+    }
+
+    @Test
+    public void replacingTheSheetDropsItsFrames() throws Exception {
+        AnimationFrames puff = factory.getFrames("puff", 20, 20);
+        AnimationFrames spin = factory.getFrames("spin", 20, 20);
+        assertEquals(2, puff.getFrameCount(Animation.MODE_STILL));
+
+        images.addSheet("puff", sheet("cloud", 3));
+
+        AnimationFrames newPuff = factory.getFrames("puff", 20, 20);
+        assertNotSame(puff, newPuff);
+        assertEquals(3, newPuff.getFrameCount(Animation.MODE_STILL));
+        // other sheets are not touched
+        assertSame(spin, factory.getFrames("spin", 20, 20));
+    }
+
+    @Test
+    public void replacingTheSheetImageDropsItsFrames() throws Exception {
+        AnimationFrames puff = factory.getFrames("puff", 20, 20);
+        AnimationFrames spin = factory.getFrames("spin", 20, 20);
+
+        // the sheet's image now comes from a different file
+        images.addImageInfo("cloud", "gun.png", ImageService.NORMAL_TYPE);
+
+        AnimationFrames newPuff = factory.getFrames("puff", 20, 20);
+        assertNotSame(puff, newPuff);
+        assertNotSame(puff.getFrame(Animation.MODE_STILL, Animation.FACING_RIGHT, 0),
+            newPuff.getFrame(Animation.MODE_STILL, Animation.FACING_RIGHT, 0));
+        assertSame(spin, factory.getFrames("spin", 20, 20));
+    }
+
+    @Test
+    public void replacingASheetKeepsSheetsWithTheSameIdPrefix() throws Exception {
+        images.addSheet("puff:big", sheet("coin", 6));
+        AnimationFrames big = factory.getFrames("puff:big", 20, 20);
+
+        images.addSheet("puff", sheet("cloud", 3));
+
+        assertSame(big, factory.getFrames("puff:big", 20, 20));
+    }
+
+    @Test
+    public void addingTheSameSheetAgainKeepsItsFrames() throws Exception {
+        AnimationFrames puff = factory.getFrames("puff", 20, 20);
+        images.addImageInfo("cloud", "cloud.png", ImageService.NORMAL_TYPE);
+        assertSame(puff, factory.getFrames("puff", 20, 20));
+    }
+
+    @Test
+    public void failedFramesAreNotRemembered() throws Exception {
+        assertThrows(IOException.class, () -> factory.getFrames("smoke", 20, 20));
+
+        images.addSheet("smoke", sheet("cloud", 2));
+        assertEquals(2, factory.getFrames("smoke", 20, 20).getFrameCount(Animation.MODE_STILL));
+    }
+}
@@ -0,0 +1,169 @@
+package com.mrstride.services;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class DecodedImageDiskCacheTest {
+
+    @TempDir
+    Path directory;
+
+    /**
+     * Writes a PNG of random pixels and returns the file.
+     */
+    private File writePng(String name, int type, long seed) throws IOException {
+        BufferedImage image = new BufferedImage(37, 23, type);
+        Random random = new Random(seed);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        File file = directory.resolve(name).toFile();
+        ImageIO.write(image, "png", file);
+        return file;
+    }
+
+    private static int[] pixelsOf(BufferedImage image) {
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+
+    private DecodedImageDiskCache newCache() throws IOException {
+        return new DecodedImageDiskCache(directory.resolve("cache"));
+    }
+
+    @Test
+    public void hitGivesTheSameImageAsDecoding() throws IOException {
+        DecodedImageDiskCache cache = newCache();
+        File[] files = {
+            writePng("argb.png", BufferedImage.TYPE_INT_ARGB, 1),
+            writePng("rgb.png", BufferedImage.TYPE_INT_RGB, 2),
+        };
+        for (File file : files) {
+            assertNull(cache.load(file), "nothing cached yet");
+            BufferedImage decoded = ImageIO.read(file);
+            assertTrue(cache.store(file, decoded));
+
+            BufferedImage cached = cache.load(file);
+            assertNotNull(cached, file.getName());
+            assertEquals(decoded.getType(), cached.getType(), file.getName());
+            assertEquals(decoded.getWidth(), cached.getWidth());
+            assertEquals(decoded.getHeight(), cached.getHeight());
+            assertArrayEquals(pixelsOf(decoded), pixelsOf(cached), file.getName());
+        }
+    }
+
+    @Test
+    public void everyStoredTypeIsRebuiltExactly() throws IOException {
+        DecodedImageDiskCache cache = newCache();
+        File file = writePng("source.png", BufferedImage.TYPE_INT_ARGB, 3);
+        int[] types = {
+            BufferedImage.TYPE_INT_ARGB,
+            BufferedImage.TYPE_INT_RGB,
+            BufferedImage.TYPE_INT_BGR,
+            BufferedImage.TYPE_4BYTE_ABGR,
+            BufferedImage.TYPE_3BYTE_BGR,
+        };
+        BufferedImage decoded = ImageIO.read(file);
+        for (int type : types) {
+            BufferedImage image = new BufferedImage(decoded.getWidth(), decoded.getHeight(), type);
+            image.setRGB(0, 0, image.getWidth(), image.getHeight(), pixelsOf(decoded), 0, image.getWidth());
+            assertTrue(cache.store(file, image));
+
+            BufferedImage cached = cache.load(file);
+            assertEquals(type, cached.getType());
+            assertArrayEquals(pixelsOf(image), pixelsOf(cached), "type " + type);
+        }
+    }
+
+    @Test
+    public void otherTypesAreNotStored() throws IOException {
+        DecodedImageDiskCache cache = newCache();
+        File file = writePng("gray.png", BufferedImage.TYPE_BYTE_GRAY, 4);
+        BufferedImage gray = new BufferedImage(10, 10, BufferedImage.TYPE_BYTE_GRAY);
+        assertFalse(cache.store(file, gray));
+        assertNull(cache.load(file));
+    }
+
+    @Test
+    public void touchedFileWithTheSameContentIsStillAHit() throws IOException {
+        DecodedImageDiskCache cache = newCache();
+        File file = writePng("touched.png", BufferedImage.TYPE_INT_ARGB, 5);
+        BufferedImage decoded = ImageIO.read(file);
+        cache.store(file, decoded);
+
+        assertTrue(file.setLastModified(file.lastModified() - 60_000));
+        BufferedImage cached = cache.load(file);
+        assertNotNull(cached);
+        assertArrayEquals(pixelsOf(decoded), pixelsOf(cached));
+
+        // the header was updated, and can be rewritten again after that
+        assertNotNull(cache.load(file));
+        assertTrue(file.setLastModified(file.lastModified() - 60_000));
+        assertNotNull(cache.load(file));
+    }
+
+    @Test
+    public void changedFileIsAMiss() throws IOException {
+        DecodedImageDiskCache cache = newCache();
+        File file = writePng("changed.png", BufferedImage.TYPE_INT_ARGB, 6);
+        cache.store(file, ImageIO.read(file));
+        long modified = file.lastModified();
+
+        // same size and name, different pixels
+        writePng("changed.png", BufferedImage.TYPE_INT_ARGB, 7);
+        assertTrue(file.setLastModified(modified + 60_000));
+        assertNull(cache.load(file));
+
+        // storing the new pixels replaces the stale entry
+        BufferedImage decoded = ImageIO.read(file);
+        assertTrue(cache.store(file, decoded));
+        assertArrayEquals(pixelsOf(decoded), pixelsOf(cache.load(file)));
+    }
+
+    @Test
+    public void brokenEntryIsAMiss() throws IOException {
+        DecodedImageDiskCache cache = newCache();
+        File file = writePng("broken.png", BufferedImage.TYPE_INT_ARGB, 8);
+        cache.store(file, ImageIO.read(file));
+
+        try (var entries = Files.list(cache.getDirectory())) {
+            Path entry = entries.findFirst().orElseThrow();
+            byte[] bytes = Files.readAllBytes(entry);
+            Files.write(entry, Arrays.copyOf(bytes, bytes.length - 4));
+        }
+        assertNull(cache.load(file));
+    }
+
+    @Test
+    public void clearDeletesEverythingRightAfterLoading() throws IOException {
+        DecodedImageDiskCache cache = newCache();
+        File file = writePng("clear.png", BufferedImage.TYPE_INT_ARGB, 9);
+        cache.store(file, ImageIO.read(file));
+        assertNotNull(cache.load(file));
+
+        // load() must not keep the file open or mapped
+        cache.clear();
+        try (var entries = Files.list(cache.getDirectory())) {
+            assertEquals(0, entries.count());
+        }
+        assertNull(cache.load(file));
+    }
+}
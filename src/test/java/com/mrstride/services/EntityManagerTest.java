@@ -0,0 +1,123 @@
+package com.mrstride.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.mrstride.entity.Entity;
+import com.mrstride.entity.FallingEntity;
+import com.mrstride.gui.Line;
+
+public class EntityManagerTest {
+
+    private static final long SEED = 7;
+    private static final int TICKS = 60;
+
+    // several chunks, so the parallel update really runs in parallel
+    private static final int ENTITY_COUNT = 6 * EntityManager.PARALLEL_CHUNK_SIZE + 100;
+
+    @TempDir
+    Path directory;
+
+    /**
+     * A falling entity that randomly spawns children and removes itself. Each one
+     * has its own Random, so what it does does not depend on which thread updates it.
+     */
+    private static class Breeder extends FallingEntity {
+        private final Random random;
+        private int children;
+
+        Breeder(String name, int x, int y, long seed) {
+            super(name, x, y, 20, 30, null);
+            random = new Random(seed);
+        }
+
+        @Override
+        public boolean update(List<Line> floors, Queue<Entity> toAdd) {
+            super.update(floors, toAdd);
+            if (random.nextInt(100) == 0) {
+                Breeder child = new Breeder(getId() + "." + children++,
+                        getBoundingRect().x + 5, getBoundingRect().y - 40, random.nextLong());
+                child.init();
+                toAdd.add(child);
+            }
+            return random.nextInt(150) != 0;
+        }
+    }
+
+    @Test
+    public void parallelUpdateGivesTheSameResultsAsSequential() {
+        EntityManager sequential = createLevel();
+        EntityManager parallel = createLevel();
+        parallel.setParallel(true);
+
+        for (int tick = 0; tick < TICKS; tick++) {
+            sequential.moveAllObjects();
+            parallel.moveAllObjects();
+            assertSameEntities(sequential, parallel, tick);
+        }
+    }
+
+    @Test
+    public void requestedTraceDumpIsWrittenAtTheEndOfTheNextTick() throws IOException {
+        EntityManager manager = new EntityManager();
+        manager.addFloor(new Line(0, 500, 1000, 500));
+        FallingEntity entity = new FallingEntity("faller", 100, 100, 20, 30, null);
+        entity.init();
+        manager.addEntity(entity);
+        manager.moveAllObjects();
+
+        Path file = directory.resolve("traces").resolve("dump.txt");
+        manager.requestPhysicsTraceDump(file);
+        assertFalse(Files.exists(file), "written before the physics thread got to it");
+
+        manager.moveAllObjects();
+        String text = Files.readString(file);
+        assertTrue(text.contains("faller"), text);
+        assertTrue(text.contains("START_MOVE"), text);
+
+        // a request is only written once
+        Files.delete(file);
+        manager.moveAllObjects();
+        assertFalse(Files.exists(file));
+    }
+
+    private static EntityManager createLevel() {
+        Random random = new Random(SEED);
+        EntityManager manager = new EntityManager();
+        int width = 20000;
+        for (int x = 0; x < width; x += 400) {
+            manager.addFloor(new Line(x, 800 + random.nextInt(100), x + 400, 800 + random.nextInt(100)));
+        }
+        manager.addFloor(new Line(0, 0, 0, 1000));
+        manager.addFloor(new Line(width, 0, width, 1000));
+        for (int i = 0; i < ENTITY_COUNT; i++) {
+            Breeder entity = new Breeder("e" + i, 50 + random.nextInt(width - 100), 100 + random.nextInt(500),
+                    random.nextLong());
+            entity.init();
+            manager.addEntity(entity);
+        }
+        return manager;
+    }
+
+    private static void assertSameEntities(EntityManager expected, EntityManager actual, int tick) {
+        assertEquals(expected.getEntityCount(), actual.getEntityCount(), "entity count at tick " + tick);
+        for (int i = 0; i < expected.getEntityCount(); i++) {
+            Entity e = expected.getEntityAt(i);
+            Entity a = actual.getEntityAt(i);
+            String where = "entity " + i + " at tick " + tick;
+            assertEquals(e.getId(), a.getId(), where);
+            assertEquals(e.getBoundingRect(), a.getBoundingRect(), where);
+        }
+    }
+}
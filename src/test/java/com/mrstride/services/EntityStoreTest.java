@@ -0,0 +1,159 @@
+package com.mrstride.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import org.junit.jupiter.api.Test;
+
+import com.mrstride.entity.Entity;
+
+public class EntityStoreTest {
+
+    private static Entity entity(int x) {
+        return new Entity(null, x, 0, 10, 10, null);
+    }
+
+    @Test
+    public void handlesKeepWorkingWhileTheArrayIsCompacted() {
+        EntityStore store = new EntityStore();
+        Entity[] added = new Entity[200];
+        long[] handles = new long[added.length];
+        for (int i = 0; i < added.length; i++) {
+            added[i] = entity(i);
+            handles[i] = store.add(added[i]);
+        }
+
+        // remove every third entity
+        for (int i = 0; i < added.length; i += 3) {
+            store.markRemoved(i);
+        }
+        store.compact();
+
+        for (int i = 0; i < added.length; i++) {
+            if (i % 3 == 0) {
+                assertNull(store.getByHandle(handles[i]), "removed entity " + i);
+            } else {
+                assertSame(added[i], store.getByHandle(handles[i]), "kept entity " + i);
+            }
+        }
+    }
+
+    @Test
+    public void compactKeepsTheOrder() {
+        EntityStore store = new EntityStore();
+        Entity[] added = new Entity[10];
+        for (int i = 0; i < added.length; i++) {
+            added[i] = entity(i);
+            store.add(added[i]);
+        }
+        store.markRemoved(0);
+        store.markRemoved(4);
+        store.markRemoved(9);
+        store.compact();
+
+        int[] expected = { 1, 2, 3, 5, 6, 7, 8 };
+        assertEquals(expected.length, store.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertSame(added[expected[i]], store.get(i));
+        }
+    }
+
+    @Test
+    public void markedEntitiesAreNotFoundBeforeCompact() {
+        EntityStore store = new EntityStore();
+        long handle = store.add(entity(1));
+        store.markRemoved(0);
+        assertNull(store.getByHandle(handle));
+    }
+
+    @Test
+    public void staleHandlesStayStaleWhenTheSlotIsReusedManyTimes() {
+        EntityStore store = new EntityStore();
+        Entity first = entity(0);
+        long stale = store.add(first);
+        store.markRemoved(0);
+        store.compact();
+
+        // far more reuses of the same slot than a narrow generation would allow
+        for (int i = 0; i < 100_000; i++) {
+            long handle = store.add(entity(i));
+            assertNotEquals(stale, handle);
+            assertNull(store.getByHandle(stale), "stale handle matched after " + i + " reuses");
+            store.markRemoved(0);
+            store.compact();
+        }
+    }
+
+    @Test
+    public void clearMakesEveryHandleStale() {
+        EntityStore store = new EntityStore();
+        long a = store.add(entity(1));
+        long b = store.add(entity(2));
+        store.clear();
+        assertEquals(0, store.size());
+        assertNull(store.getByHandle(a));
+        assertNull(store.getByHandle(b));
+
+        Entity c = entity(3);
+        long handle = store.add(c);
+        assertSame(c, store.getByHandle(handle));
+    }
+
+    @Test
+    public void unknownHandlesAreNotFound() {
+        EntityStore store = new EntityStore();
+        store.add(entity(1));
+        assertNull(store.getByHandle(12345));
+        assertNull(store.getByHandle(-1));
+    }
+
+    @Test
+    public void liveEntitiesKeepTheirImagesPinned() throws Exception {
+        ImageServiceProvider images = new ImageServiceProvider();
+        images.addImageInfo("cloud", "cloud.png", ImageService.NORMAL_TYPE);
+        // a budget of nothing keeps only the pinned images
+        images.setCacheBudget(0);
+
+        EntityStore store = new EntityStore();
+        Entity a = new Entity("cloud", 0, 0, 50, 50, null);
+        Entity b = new Entity("cloud", 100, 0, 50, 50, null);
+        a.setServices(null, images, null);
+        b.setServices(null, images, null);
+        a.init();
+        b.init();
+        store.add(a);
+        store.add(b);
+        images.getImage("cloud");
+        assertEquals(1, images.getCacheStats().count());
+
+        // one entity is still alive, so the image stays
+        store.markRemoved(0);
+        store.compact();
+        assertEquals(1, images.getCacheStats().count());
+
+        store.clear();
+        assertEquals(0, images.getCacheStats().count());
+    }
+
+    @Test
+    public void animatedEntitiesPinTheirSheetImage() throws Exception {
+        ImageServiceProvider images = new ImageServiceProvider();
+        images.addImageInfo("cloud", "cloud.png", ImageService.NORMAL_TYPE);
+        images.addSheet("puff", new SpriteSheetInfo("cloud", new int[] { 50, 50 }, new boolean[] { true },
+            new int[] { 2 }, new int[] { 1 }, new int[][] { { 0, 0 } }, null));
+        images.setCacheBudget(0);
+
+        EntityStore store = new EntityStore();
+        Entity a = new Entity("puff", 0, 0, 20, 20, null);
+        a.setServices(new AnimationFactory(images), images, null);
+        a.init();
+        store.add(a);
+        images.getImage("cloud");
+        assertEquals(1, images.getCacheStats().count());
+
+        store.clear();
+        assertEquals(0, images.getCacheStats().count());
+    }
+}
@@ -0,0 +1,148 @@
+package com.mrstride.services;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.mrstride.gui.Line;
+
+public class FloorLayerTest {
+
+    private static final int WIDTH = 800;
+    private static final int HEIGHT = 600;
+    private static final Color BACKGROUND = Color.WHITE;
+
+    private final LineGrid grid = new LineGrid();
+    private final List<Line> lines = new ArrayList<>();
+
+    private void add(Line line) {
+        grid.add(line);
+        lines.add(line);
+    }
+
+    /**
+     * A level with a dense part (tiles kept as images) and a sparse part
+     * (tiles that draw their few lines), with lines crossing tile edges.
+     */
+    private void addLevel() {
+        Random random = new Random(42);
+        for (int i = 0; i < 1500; i++) {
+            int x = random.nextInt(4000);
+            int y = random.nextInt(1500);
+            add(new Line(x, y, x + random.nextInt(600) - 300, y + random.nextInt(200) - 100));
+        }
+        for (int i = 0; i < 30; i++) {
+            int x = 4000 + random.nextInt(16000);
+            int y = random.nextInt(1500);
+            add(new Line(x, y, x + random.nextInt(1200) - 600, y + random.nextInt(40) - 20));
+        }
+        // exactly on the tile edges
+        add(new Line(FloorLayer.TILE_SIZE, 0, FloorLayer.TILE_SIZE, 1500));
+        add(new Line(0, FloorLayer.TILE_SIZE, 20000, FloorLayer.TILE_SIZE));
+    }
+
+    private BufferedImage newCanvas() {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(BACKGROUND);
+        g.fillRect(0, 0, WIDTH, HEIGHT);
+        g.dispose();
+        return image;
+    }
+
+    private BufferedImage drawLayer(FloorLayer layer, Rectangle viewport) {
+        BufferedImage image = newCanvas();
+        Graphics2D g = image.createGraphics();
+        layer.draw(g, viewport);
+        g.dispose();
+        return image;
+    }
+
+    /**
+     * Every line stroked straight onto the screen, the way floors were drawn
+     * before there were tiles.
+     */
+    private BufferedImage drawDirectly(Rectangle viewport) {
+        BufferedImage image = newCanvas();
+        Graphics2D g = image.createGraphics();
+        g.setStroke(new BasicStroke(FloorLayer.THICKNESS));
+        g.setColor(FloorLayer.COLOR);
+        for (Line line : lines) {
+            g.drawLine((int) line.x1 - viewport.x, (int) line.y1 - viewport.y,
+                    (int) line.x2 - viewport.x, (int) line.y2 - viewport.y);
+        }
+        g.dispose();
+        return image;
+    }
+
+    private static int[] pixelsOf(BufferedImage image) {
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+
+    private void awaitBuilt(FloorLayer layer) throws InterruptedException {
+        for (int i = 0; i < 1000 && !layer.isBuilt(); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(layer.isBuilt(), "the tiles were not built in the background");
+    }
+
+    @Test
+    public void tilesLookTheSameAsDrawingTheLines() {
+        addLevel();
+        FloorLayer layer = new FloorLayer(grid);
+        layer.build();
+        assertTrue(layer.isBuilt());
+
+        Random random = new Random(7);
+        for (int i = 0; i < 40; i++) {
+            Rectangle viewport = new Rectangle(random.nextInt(20000) - 500, random.nextInt(1200) - 300, WIDTH, HEIGHT);
+            assertArrayEquals(pixelsOf(drawDirectly(viewport)), pixelsOf(drawLayer(layer, viewport)),
+                "viewport " + viewport);
+        }
+    }
+
+    @Test
+    public void drawsTheLinesUntilTheTilesAreBuilt() throws InterruptedException {
+        addLevel();
+        FloorLayer layer = new FloorLayer(grid);
+        Rectangle viewport = new Rectangle(1000, 200, WIDTH, HEIGHT);
+
+        // not built yet: the lines are drawn directly, and the tiles are built elsewhere
+        assertFalse(layer.isBuilt());
+        assertArrayEquals(pixelsOf(drawDirectly(viewport)), pixelsOf(drawLayer(layer, viewport)));
+        awaitBuilt(layer);
+        assertArrayEquals(pixelsOf(drawDirectly(viewport)), pixelsOf(drawLayer(layer, viewport)));
+    }
+
+    @Test
+    public void addedLinesAndNewBackgroundRebuildTheTiles() throws InterruptedException {
+        addLevel();
+        FloorLayer layer = new FloorLayer(grid);
+        layer.build();
+
+        Rectangle viewport = new Rectangle(9000, 0, WIDTH, HEIGHT);
+        add(new Line(9100, 100, 9600, 500));
+        layer.invalidate();
+        assertFalse(layer.isBuilt());
+        assertArrayEquals(pixelsOf(drawDirectly(viewport)), pixelsOf(drawLayer(layer, viewport)));
+        awaitBuilt(layer);
+        assertArrayEquals(pixelsOf(drawDirectly(viewport)), pixelsOf(drawLayer(layer, viewport)));
+
+        layer.setBackground(Color.BLACK);
+        assertFalse(layer.isBuilt());
+        layer.setBackground(BACKGROUND);
+        layer.build();
+        assertTrue(layer.isBuilt());
+    }
+}
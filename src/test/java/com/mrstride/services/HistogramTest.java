@@ -0,0 +1,135 @@
+package com.mrstride.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+public class HistogramTest {
+
+    /**
+     * The largest relative error of a bucket: its width over its lowest value.
+     */
+    private static final double MAX_ERROR = 1.0 / Histogram.SUB_BUCKETS;
+
+    @Test
+    public void smallValuesHaveTheirOwnBuckets() {
+        for (int value = 0; value < Histogram.SUB_BUCKETS; value++) {
+            assertEquals(value, Histogram.bucketOf(value));
+            assertEquals(value, Histogram.highestValueIn(value));
+        }
+    }
+
+    @Test
+    public void bucketsAtThePowersOfTwo() {
+        assertEquals(31, Histogram.bucketOf(31));
+        assertEquals(32, Histogram.bucketOf(32));
+        assertEquals(32, Histogram.highestValueIn(32));
+        assertEquals(63, Histogram.bucketOf(63));
+        assertEquals(63, Histogram.highestValueIn(63));
+
+        // from 64 up, each bucket holds two values, then four, and so on
+        assertEquals(64, Histogram.bucketOf(64));
+        assertEquals(64, Histogram.bucketOf(65));
+        assertEquals(65, Histogram.highestValueIn(64));
+        assertEquals(65, Histogram.bucketOf(66));
+        assertEquals(127, Histogram.highestValueIn(Histogram.bucketOf(127)));
+        assertEquals(Histogram.bucketOf(127) + 1, Histogram.bucketOf(128));
+        assertEquals(131, Histogram.highestValueIn(Histogram.bucketOf(128)));
+    }
+
+    @Test
+    public void largestValuesDoNotOverflow() {
+        int top = Histogram.bucketOf(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, Histogram.highestValueIn(top));
+        assertEquals(top, Histogram.bucketOf(Long.MAX_VALUE - (1L << 56)));
+        assertEquals(top - 1, Histogram.bucketOf(Long.MAX_VALUE - (1L << 57)));
+
+        long power = 1L << 62;
+        assertEquals(Histogram.bucketOf(power - 1) + 1, Histogram.bucketOf(power));
+        assertEquals(power - 1, Histogram.highestValueIn(Histogram.bucketOf(power - 1)));
+    }
+
+    @Test
+    public void everyValueIsInsideItsBucket() {
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            // spread the values over every power of two
+            long value = (random.nextLong() >>> 1) >>> random.nextInt(63);
+            int bucket = Histogram.bucketOf(value);
+            long highest = Histogram.highestValueIn(bucket);
+            long lowest = (bucket == 0) ? 0 : Histogram.highestValueIn(bucket - 1) + 1;
+            assertTrue(lowest <= value && value <= highest, "value " + value + " bucket " + bucket);
+            assertTrue(highest - lowest <= lowest * MAX_ERROR, "bucket " + bucket + " is too wide");
+        }
+    }
+
+    @Test
+    public void percentilesAreWithinTheBucketError() {
+        Histogram histogram = new Histogram("test");
+        Random random = new Random(7);
+        long[] values = new long[200_000];
+        for (int i = 0; i < values.length; i++) {
+            // long tailed, like frame times in nanoseconds
+            values[i] = (long) (1_000_000 * Math.exp(random.nextGaussian()));
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        for (double percentile : new double[] { 1, 10, 50, 90, 99, 99.9, 100 }) {
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * values.length));
+            long exact = values[(int) rank - 1];
+            long reported = histogram.getPercentile(percentile);
+            assertTrue(reported >= exact, "p" + percentile + " " + reported + " < " + exact);
+            assertTrue(reported <= exact * (1 + MAX_ERROR), "p" + percentile + " " + reported + " vs " + exact);
+        }
+        assertEquals(values[values.length - 1], histogram.getMax());
+        assertEquals(values[values.length - 1], histogram.getPercentile(100));
+    }
+
+    @Test
+    public void smallCountsAreExact() {
+        Histogram histogram = new Histogram("test");
+        for (int value = 1; value <= 10; value++) {
+            histogram.record(value);
+        }
+        assertEquals(5, histogram.getPercentile(50));
+        assertEquals(10, histogram.getPercentile(99));
+        assertEquals(1, histogram.getPercentile(0));
+        assertEquals(5.5, histogram.getMean(), 1e-9);
+
+        HistogramSnapshot snapshot = histogram.getSnapshot();
+        assertEquals(10, snapshot.count());
+        assertEquals(5, snapshot.p50());
+        assertEquals(10, snapshot.max());
+    }
+
+    @Test
+    public void negativeValuesCountAsZeroAndResetForgetsEverything() {
+        Histogram histogram = new Histogram("test");
+        assertEquals(0, histogram.getPercentile(50));
+        histogram.record(-5);
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(50));
+
+        histogram.record(1000);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(99));
+    }
+
+    @Test
+    public void recordingFromManyThreadsCountsEveryValue() {
+        Histogram histogram = new Histogram("test");
+        IntStream.range(0, 400_000).parallel().forEach(i -> histogram.record(i % 1000));
+        assertEquals(400_000, histogram.getCount());
+        assertEquals(999, histogram.getMax());
+        assertEquals(499.5, histogram.getMean(), 1e-9);
+    }
+}
@@ -0,0 +1,175 @@
+package com.mrstride.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+
+import org.junit.jupiter.api.Test;
+
+public class ImageCacheTest {
+
+    // 10x10 ARGB = 400 bytes of pixel data
+    private static final long IMAGE_BYTES = 400;
+
+    private static BufferedImage image() {
+        return new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB);
+    }
+
+    @Test
+    public void sizeIsPixelsTimesBytesPerPixel() {
+        assertEquals(IMAGE_BYTES, ImageCache.sizeOf(image()));
+        assertEquals(100, ImageCache.sizeOf(new BufferedImage(10, 10, BufferedImage.TYPE_BYTE_GRAY)));
+        // INT_RGB only uses 3 bytes of color, but stores each pixel in an int
+        assertEquals(IMAGE_BYTES, ImageCache.sizeOf(new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB)));
+        assertEquals(IMAGE_BYTES, ImageCache.sizeOf(new BufferedImage(10, 10, BufferedImage.TYPE_INT_BGR)));
+        assertEquals(300, ImageCache.sizeOf(new BufferedImage(10, 10, BufferedImage.TYPE_3BYTE_BGR)));
+    }
+
+    @Test
+    public void staysWithinBudgetByEvictingLeastRecentlyUsed() throws InterruptedException {
+        ImageCache cache = new ImageCache(3 * IMAGE_BYTES);
+        BufferedImage a = image();
+        cache.put("a", a);
+        cache.put("b", image());
+        cache.put("c", image());
+
+        // use "a" so that "b" is now the least recently used
+        Thread.sleep(1);
+        assertSame(a, cache.get("a"));
+
+        cache.put("d", image());
+
+        ImageCacheStats stats = cache.getStats();
+        assertEquals(3, stats.count());
+        assertEquals(3 * IMAGE_BYTES, stats.bytes());
+        assertEquals(1, stats.evictions());
+        assertTrue(stats.bytes() <= stats.maxBytes());
+        assertSame(a, cache.get("a"));
+    }
+
+    @Test
+    public void pinnedImageSurvivesBudgetPressure() {
+        ImageCache cache = new ImageCache(2 * IMAGE_BYTES);
+        cache.put("hero", image());
+        cache.pin("hero");
+        assertTrue(cache.isPinned("hero"));
+
+        // "hero" is the oldest, but pinned, so everything else gets evicted instead
+        for (int i = 0; i < 20; i++) {
+            cache.put("other" + i, image());
+        }
+        assertTrue(cache.getStats().bytes() <= 2 * IMAGE_BYTES);
+
+        // even a budget of nothing keeps it
+        cache.setMaxBytes(0);
+        ImageCacheStats stats = cache.getStats();
+        assertEquals(1, stats.count());
+        assertEquals(IMAGE_BYTES, stats.bytes());
+    }
+
+    @Test
+    public void unpinnedImageCanBeEvictedAgain() {
+        ImageCache cache = new ImageCache(IMAGE_BYTES);
+        cache.put("hero", image());
+
+        // pinned twice, so it takes two unpins
+        cache.pin("hero");
+        cache.pin("hero");
+        cache.put("bullet", image());
+        cache.unpin("hero");
+        assertTrue(cache.isPinned("hero"));
+        assertEquals(1, cache.getStats().count());
+
+        // the last unpin puts the cache back under budget right away
+        cache.setMaxBytes(0);
+        assertEquals(1, cache.getStats().count());
+        cache.unpin("hero");
+        assertFalse(cache.isPinned("hero"));
+        assertEquals(0, cache.getStats().count());
+        assertEquals(0, cache.getStats().bytes());
+    }
+
+    @Test
+    public void evictedImageStillInUseIsReused() {
+        ImageCache cache = new ImageCache(IMAGE_BYTES);
+        BufferedImage a = image();
+        cache.put("a", a);
+        cache.put("b", image());
+
+        // "a" was evicted, but we still hold it, so it comes back without a decode
+        assertSame(a, cache.get("a"));
+        assertEquals(0, cache.getStats().misses());
+    }
+
+    @Test
+    public void missesAreCounted() {
+        ImageCache cache = new ImageCache(IMAGE_BYTES);
+        assertNull(cache.get("nothing"));
+        cache.put("a", image());
+        cache.get("a");
+
+        ImageCacheStats stats = cache.getStats();
+        assertEquals(1, stats.misses());
+        assertEquals(1, stats.hits());
+    }
+
+    @Test
+    public void peekDoesNotCount() {
+        ImageCache cache = new ImageCache(IMAGE_BYTES);
+        BufferedImage a = image();
+        assertNull(cache.peek("a"));
+        cache.put("a", a);
+        assertSame(a, cache.peek("a"));
+
+        ImageCacheStats stats = cache.getStats();
+        assertEquals(0, stats.hits());
+        assertEquals(0, stats.misses());
+    }
+
+    @Test
+    public void removeFreesTheBytes() {
+        ImageCache cache = new ImageCache(10 * IMAGE_BYTES);
+        cache.put("a", image());
+        cache.put("a", image());
+        assertEquals(IMAGE_BYTES, cache.getStats().bytes());
+
+        cache.remove("a");
+        assertEquals(0, cache.getStats().bytes());
+        assertNull(cache.get("a"));
+    }
+
+    @Test
+    public void putIfAddsOnlyWhenTheConditionHolds() {
+        ImageCache cache = new ImageCache(10 * IMAGE_BYTES);
+        assertFalse(cache.putIf("a", image(), () -> false));
+        assertNull(cache.peek("a"));
+        assertEquals(0, cache.getStats().bytes());
+
+        BufferedImage a = image();
+        assertTrue(cache.putIf("a", a, () -> true));
+        assertSame(a, cache.peek("a"));
+    }
+
+    @Test
+    public void removeDuringPutIfWaitsUntilTheImageIsAdded() throws InterruptedException {
+        ImageCache cache = new ImageCache(10 * IMAGE_BYTES);
+        Thread remover = new Thread(() -> cache.remove("a"));
+
+        assertTrue(cache.putIf("a", image(), () -> {
+            // the id is replaced after the check: its remove() must come after the put
+            remover.start();
+            while (remover.getState() != Thread.State.BLOCKED) {
+                Thread.onSpinWait();
+            }
+            return true;
+        }));
+        remover.join(10_000);
+        assertFalse(remover.isAlive());
+        assertNull(cache.peek("a"));
+        assertEquals(0, cache.getStats().bytes());
+    }
+}
@@ -0,0 +1,254 @@
+package com.mrstride.services;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class ImageDownloaderTest {
+
+    private static final String LAST_MODIFIED = "Wed, 21 Oct 2015 07:28:00 GMT";
+
+    @TempDir
+    Path directory;
+
+    private HttpServer server;
+    private ExecutorService serverThreads;
+    private String url;
+    private Path mirror;
+
+    // what the server serves, and what it saw
+    private volatile byte[] content = "first version".getBytes(StandardCharsets.UTF_8);
+    private volatile String etag = "\"v1\"";
+    private volatile boolean truncate;
+    private volatile int errorStatus;
+    private volatile CountDownLatch release;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger fullResponses = new AtomicInteger();
+    private volatile String ifNoneMatch;
+    private volatile String ifModifiedSince;
+
+    @BeforeEach
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/art.png", this::handle);
+        serverThreads = Executors.newCachedThreadPool();
+        server.setExecutor(serverThreads);
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/art.png";
+        mirror = directory.resolve("images").resolve("art.png");
+    }
+
+    @AfterEach
+    public void stopServer() {
+        server.stop(0);
+        serverThreads.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        ifModifiedSince = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+        try (InputStream in = exchange.getRequestBody()) {
+            in.readAllBytes();
+        }
+
+        CountDownLatch wait = release;
+        if (wait != null) {
+            try {
+                wait.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (errorStatus != 0) {
+            exchange.sendResponseHeaders(errorStatus, -1);
+            exchange.close();
+            return;
+        }
+
+        if (etag.equals(ifNoneMatch)) {
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+
+        fullResponses.incrementAndGet();
+        exchange.getResponseHeaders().set("ETag", etag);
+        exchange.getResponseHeaders().set("Last-Modified", LAST_MODIFIED);
+        byte[] body = content;
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            // a truncated response promises the whole body but stops halfway
+            out.write(body, 0, truncate ? body.length / 2 : body.length);
+        }
+    }
+
+    private List<Path> partFiles() throws IOException {
+        try (var files = Files.list(mirror.getParent())) {
+            return files.filter(file -> file.toString().endsWith(".part")).toList();
+        }
+    }
+
+    @Test
+    public void downloadsIntoTheMirror() throws IOException {
+        ImageDownloader downloader = new ImageDownloader();
+        assertEquals(mirror, downloader.fetch(url, mirror));
+
+        assertArrayEquals(content, Files.readAllBytes(mirror));
+        assertNull(ifNoneMatch, "nothing to revalidate the first time");
+        assertTrue(partFiles().isEmpty());
+
+        Properties meta = new Properties();
+        try (InputStream in = Files.newInputStream(mirror.resolveSibling("art.png.meta"))) {
+            meta.load(in);
+        }
+        assertEquals(etag, meta.getProperty("ETag"));
+        assertEquals(LAST_MODIFIED, meta.getProperty("Last-Modified"));
+    }
+
+    @Test
+    public void mirrorIsTrustedForTheRestOfTheRun() throws IOException {
+        ImageDownloader downloader = new ImageDownloader();
+        downloader.fetch(url, mirror);
+        downloader.fetch(url, mirror);
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void nextRunRevalidatesWithNotModified() throws IOException {
+        new ImageDownloader().fetch(url, mirror);
+        long modified = Files.getLastModifiedTime(mirror).toMillis();
+
+        // a new downloader is a new run of the program
+        new ImageDownloader().fetch(url, mirror);
+        assertEquals(2, requests.get());
+        assertEquals(1, fullResponses.get(), "the unchanged image was downloaded again");
+        assertEquals("\"v1\"", ifNoneMatch);
+        assertEquals(LAST_MODIFIED, ifModifiedSince);
+        assertEquals(modified, Files.getLastModifiedTime(mirror).toMillis());
+    }
+
+    @Test
+    public void nextRunDownloadsAChangedImage() throws IOException {
+        new ImageDownloader().fetch(url, mirror);
+
+        content = "second version".getBytes(StandardCharsets.UTF_8);
+        etag = "\"v2\"";
+        new ImageDownloader().fetch(url, mirror);
+
+        assertEquals("\"v1\"", ifNoneMatch);
+        assertEquals(2, fullResponses.get());
+        assertArrayEquals(content, Files.readAllBytes(mirror));
+        assertTrue(partFiles().isEmpty());
+    }
+
+    @Test
+    public void concurrentFetchesShareOneDownload() throws Exception {
+        ImageDownloader downloader = new ImageDownloader();
+        release = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Path>> fetches = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                fetches.add(pool.submit(() -> downloader.fetch(url, mirror)));
+            }
+            // give every thread time to ask while the first download is held up
+            Thread.sleep(200);
+            release.countDown();
+
+            for (Future<Path> fetch : fetches) {
+                assertEquals(mirror, fetch.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(1, requests.get());
+        assertArrayEquals(content, Files.readAllBytes(mirror));
+    }
+
+    @Test
+    public void failedDownloadLeavesTheOldMirror() throws IOException {
+        new ImageDownloader().fetch(url, mirror);
+        byte[] first = content;
+
+        // the image changed, but the download breaks off halfway
+        content = "a much longer second version of the image".getBytes(StandardCharsets.UTF_8);
+        etag = "\"v2\"";
+        truncate = true;
+        assertEquals(mirror, new ImageDownloader().fetch(url, mirror));
+
+        // the rename never happened, and the temporary file is gone
+        assertArrayEquals(first, Files.readAllBytes(mirror));
+        assertTrue(partFiles().isEmpty());
+    }
+
+    @Test
+    public void serverErrorUsesTheMirror() throws IOException {
+        new ImageDownloader().fetch(url, mirror);
+        byte[] first = content;
+
+        content = "second version".getBytes(StandardCharsets.UTF_8);
+        etag = "\"v2\"";
+        errorStatus = 503;
+        assertEquals(mirror, new ImageDownloader().fetch(url, mirror));
+        assertArrayEquals(first, Files.readAllBytes(mirror));
+    }
+
+    @Test
+    public void serverErrorWithoutAMirrorFails() {
+        errorStatus = 503;
+        assertThrows(IOException.class, () -> new ImageDownloader().fetch(url, mirror));
+        assertFalse(Files.exists(mirror));
+    }
+
+    @Test
+    public void failedFirstDownloadLeavesNoMirror() throws IOException {
+        truncate = true;
+        assertThrows(IOException.class, () -> new ImageDownloader().fetch(url, mirror));
+        assertFalse(Files.exists(mirror));
+        assertTrue(partFiles().isEmpty());
+    }
+
+    @Test
+    public void offlineUsesTheMirror() throws IOException {
+        new ImageDownloader().fetch(url, mirror);
+        server.stop(0);
+
+        assertEquals(mirror, new ImageDownloader().fetch(url, mirror));
+        assertArrayEquals(content, Files.readAllBytes(mirror));
+    }
+
+    @Test
+    public void downloadWithoutMirror() throws IOException {
+        assertArrayEquals(content, new ImageDownloader().download(url));
+    }
+}
@@ -0,0 +1,192 @@
+package com.mrstride.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+
+public class ImageServiceProviderTest {
+
+    private static final String OLD_URL = "http://images.test/old.png";
+    private static final String NEW_URL = "http://images.test/new.png";
+
+    /**
+     * Serves a one pixel PNG per URL without a network. The old URL waits
+     * until the test lets it finish, so the test can act in the middle of a decode.
+     */
+    private static class SlowDownloader extends ImageDownloader {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch finish = new CountDownLatch(1);
+
+        @Override
+        public byte[] download(String url) throws IOException {
+            if (url.equals(OLD_URL)) {
+                started.countDown();
+                try {
+                    finish.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return png(Color.RED);
+            }
+            return png(Color.BLUE);
+        }
+    }
+
+    /**
+     * Counts the downloads of each URL, and holds every download until the
+     * test lets them finish, so that all the requests overlap.
+     */
+    private static class CountingDownloader extends ImageDownloader {
+        final Map<String, AtomicInteger> downloads = new ConcurrentHashMap<>();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch finish = new CountDownLatch(1);
+
+        @Override
+        public byte[] download(String url) throws IOException {
+            downloads.computeIfAbsent(url, u -> new AtomicInteger()).incrementAndGet();
+            started.countDown();
+            try {
+                finish.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            return png(Color.GREEN);
+        }
+
+        int count(String url) {
+            AtomicInteger count = downloads.get(url);
+            return (count == null) ? 0 : count.get();
+        }
+    }
+
+    private static byte[] png(Color color) throws IOException {
+        BufferedImage image = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, color.getRGB());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void replacingAnImageWhileItDecodesDoesNotCacheTheOldOne() throws Exception {
+        ImageServiceProvider images = new ImageServiceProvider();
+        SlowDownloader downloader = new SlowDownloader();
+        images.setImageDownloader(downloader);
+        images.setConvertImages(false);
+        images.addImageInfo("sky", OLD_URL, ImageService.URL_SOURCE_TYPE);
+
+        CompletableFuture<BufferedImage> oldDecode = images.getImageAsync("sky");
+        assertTrue(downloader.started.await(10, TimeUnit.SECONDS));
+
+        // replace the image while the old one is still downloading
+        images.addImageInfo("sky", NEW_URL, ImageService.URL_SOURCE_TYPE);
+        CompletableFuture<BufferedImage> newDecode = images.getImageAsync("sky");
+        assertNotSame(oldDecode, newDecode, "joined the decode of the old image");
+        assertEquals(Color.BLUE.getRGB(), newDecode.get(10, TimeUnit.SECONDS).getRGB(0, 0));
+
+        // the old decode finishes last and must not replace the new image
+        downloader.finish.countDown();
+        oldDecode.get(10, TimeUnit.SECONDS);
+        assertEquals(Color.BLUE.getRGB(), images.getImage("sky").getRGB(0, 0));
+    }
+
+    @Test
+    public void replacingAnImageAfterItLoadsDoesNotCacheTheOldOne() throws Exception {
+        ImageServiceProvider images = new ImageServiceProvider();
+        images.setConvertImages(false);
+        // the old image is downloaded, then replaced before the decode can cache it
+        images.setImageDownloader(new ImageDownloader() {
+            @Override
+            public byte[] download(String url) throws IOException {
+                if (url.equals(OLD_URL)) {
+                    byte[] old = png(Color.RED);
+                    images.addImageInfo("sky", NEW_URL, ImageService.URL_SOURCE_TYPE);
+                    return old;
+                }
+                return png(Color.BLUE);
+            }
+        });
+        images.addImageInfo("sky", OLD_URL, ImageService.URL_SOURCE_TYPE);
+
+        // the caller that asked before the replacement still gets what it asked for
+        assertEquals(Color.RED.getRGB(), images.getImageAsync("sky").get(10, TimeUnit.SECONDS).getRGB(0, 0));
+        assertEquals(0, images.getCacheStats().count());
+        assertEquals(Color.BLUE.getRGB(), images.getImage("sky").getRGB(0, 0));
+    }
+
+    @Test
+    public void manyRequestsForTheSameImageShareOneDecode() throws Exception {
+        ImageServiceProvider images = new ImageServiceProvider();
+        CountingDownloader downloader = new CountingDownloader();
+        images.setImageDownloader(downloader);
+        images.setConvertImages(false);
+        images.addImageInfo("sky", OLD_URL, ImageService.URL_SOURCE_TYPE);
+
+        CompletableFuture<BufferedImage> first = images.getImageAsync("sky");
+        assertTrue(downloader.started.await(10, TimeUnit.SECONDS));
+
+        ExecutorService threads = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<CompletableFuture<BufferedImage>>> async = new ArrayList<>();
+            List<Future<BufferedImage>> blocking = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                async.add(threads.submit(() -> images.getImageAsync("sky")));
+                blocking.add(threads.submit(() -> images.getImage("sky")));
+            }
+            // the async requests are made while the first decode is still running
+            for (Future<CompletableFuture<BufferedImage>> request : async) {
+                assertSame(first, request.get(10, TimeUnit.SECONDS));
+            }
+
+            downloader.finish.countDown();
+            BufferedImage image = first.get(10, TimeUnit.SECONDS);
+            for (Future<BufferedImage> request : blocking) {
+                assertSame(image, request.get(10, TimeUnit.SECONDS));
+            }
+            assertSame(image, images.getImage("sky"));
+            assertEquals(1, downloader.count(OLD_URL));
+            assertEquals(1, images.getCacheStats().count());
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+
+    @Test
+    public void preloadDecodesARepeatedIdOnce() throws Exception {
+        ImageServiceProvider images = new ImageServiceProvider();
+        CountingDownloader downloader = new CountingDownloader();
+        images.setImageDownloader(downloader);
+        images.setConvertImages(false);
+        images.addImageInfo("sky", OLD_URL, ImageService.URL_SOURCE_TYPE);
+        images.addImageInfo("sea", NEW_URL, ImageService.URL_SOURCE_TYPE);
+
+        CompletableFuture<Void> preload = images.preload(List.of("sky", "sea", "sky", "sky", "sea"));
+        downloader.finish.countDown();
+        preload.get(10, TimeUnit.SECONDS);
+
+        assertEquals(1, downloader.count(OLD_URL));
+        assertEquals(1, downloader.count(NEW_URL));
+        assertEquals(2, images.getCacheStats().count());
+    }
+}
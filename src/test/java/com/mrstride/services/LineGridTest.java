@@ -0,0 +1,97 @@
+package com.mrstride.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.mrstride.gui.Line;
+
+public class LineGridTest {
+
+    private static final long SEED = 42;
+
+    @Test
+    public void queryFindsEveryLineTheBruteForceScanFinds() {
+        Random random = new Random(SEED);
+        LineGrid grid = new LineGrid();
+        List<Line> all = new ArrayList<>();
+
+        // enough lines that the buckets are rebuilt a few times, some of them long
+        for (int i = 0; i < 2000; i++) {
+            int x = random.nextInt(20000) - 2000;
+            int y = random.nextInt(4000) - 500;
+            int length = (i % 10 == 0) ? 3000 : 200;
+            Line line = new Line(x, y, x + random.nextInt(length), y + random.nextInt(length) - length / 2);
+            all.add(line);
+            grid.add(line);
+        }
+        assertEquals(all.size(), grid.size());
+
+        Map<Line, Integer> order = new IdentityHashMap<>();
+        for (int i = 0; i < all.size(); i++) {
+            order.put(all.get(i), i);
+        }
+
+        List<Line> result = new ArrayList<>();
+        Rectangle area = new Rectangle();
+        for (int q = 0; q < 500; q++) {
+            area.setBounds(random.nextInt(20000) - 2000, random.nextInt(4000) - 500,
+                    random.nextInt(400), random.nextInt(400));
+            grid.query(area, result);
+
+            // in the order added and without duplicates
+            int last = -1;
+            for (Line line : result) {
+                int index = order.get(line);
+                assertTrue(index > last, "results out of order or repeated");
+                last = index;
+            }
+
+            // never misses a line whose bounding box touches the area
+            for (Line line : all) {
+                if (overlaps(line, area)) {
+                    assertTrue(result.stream().anyMatch(found -> found == line), "missed " + line);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void queryClearsTheResultFirst() {
+        LineGrid grid = new LineGrid();
+        grid.add(new Line(0, 100, 1000, 100));
+
+        List<Line> result = new ArrayList<>();
+        result.add(new Line(5, 5, 6, 6));
+        grid.query(new Rectangle(5000, 5000, 10, 10), result);
+        assertEquals(0, result.size());
+
+        grid.query(new Rectangle(10, 90, 20, 20), result);
+        assertEquals(1, result.size());
+    }
+
+    @Test
+    public void clearForgetsEveryLine() {
+        LineGrid grid = new LineGrid();
+        grid.add(new Line(0, 100, 1000, 100));
+        grid.clear();
+
+        List<Line> result = new ArrayList<>();
+        grid.query(new Rectangle(0, 0, 1000, 1000), result);
+        assertEquals(0, grid.size());
+        assertEquals(0, result.size());
+    }
+
+    private static boolean overlaps(Line line, Rectangle area) {
+        return line.getMinX() <= area.x + area.width && line.getMaxX() >= area.x
+            && line.getMinY() <= area.y + area.height && line.getMaxY() >= area.y;
+    }
+}
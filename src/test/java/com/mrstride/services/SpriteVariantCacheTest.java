@@ -0,0 +1,110 @@
+package com.mrstride.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+public class SpriteVariantCacheTest {
+
+    // 10x10 ARGB = 400 bytes of pixel data
+    private static final long VARIANT_BYTES = 400;
+
+    private final AtomicInteger builds = new AtomicInteger();
+
+    private BufferedImage build(SpriteVariantKey key) {
+        builds.incrementAndGet();
+        return new BufferedImage(key.width(), key.height(), BufferedImage.TYPE_INT_ARGB);
+    }
+
+    private static SpriteVariantKey key(String id, boolean flipped) {
+        return new SpriteVariantKey(id, ImageService.WHOLE_IMAGE, 10, 10, flipped);
+    }
+
+    @Test
+    public void sameKeyIsBuiltOnceAndShared() throws IOException {
+        SpriteVariantCache cache = new SpriteVariantCache(10 * VARIANT_BYTES);
+        BufferedImage first = cache.get(key("coin", false), this::build);
+        BufferedImage second = cache.get(key("coin", false), this::build);
+        assertSame(first, second);
+        assertEquals(1, builds.get());
+        assertEquals(VARIANT_BYTES, cache.getBytes());
+    }
+
+    @Test
+    public void staysWithinBudgetByEvictingLeastRecentlyUsed() throws Exception {
+        SpriteVariantCache cache = new SpriteVariantCache(2 * VARIANT_BYTES);
+        BufferedImage a = cache.get(key("a", false), this::build);
+        cache.get(key("b", false), this::build);
+
+        // use "a" so that "b" is now the least recently used
+        Thread.sleep(1);
+        cache.get(key("a", false), this::build);
+        cache.get(key("c", false), this::build);
+
+        assertEquals(2, cache.size());
+        assertEquals(2 * VARIANT_BYTES, cache.getBytes());
+        assertEquals(1, cache.getEvictions());
+        assertSame(a, cache.get(key("a", false), this::build));
+
+        // "b" was dropped, so it is built again
+        cache.get(key("b", false), this::build);
+        assertEquals(4, builds.get());
+        assertTrue(cache.getBytes() <= 2 * VARIANT_BYTES);
+    }
+
+    @Test
+    public void newVariantIsKeptEvenIfOverBudget() throws IOException {
+        SpriteVariantCache cache = new SpriteVariantCache(0);
+        BufferedImage a = cache.get(key("a", false), this::build);
+        assertSame(a, cache.get(key("a", false), this::build));
+        assertEquals(1, builds.get());
+
+        cache.get(key("b", false), this::build);
+        assertEquals(1, cache.size());
+        assertEquals(VARIANT_BYTES, cache.getBytes());
+    }
+
+    @Test
+    public void removeImageForgetsItsVariantsAndTheirBytes() throws IOException {
+        SpriteVariantCache cache = new SpriteVariantCache(10 * VARIANT_BYTES);
+        BufferedImage right = cache.get(key("hero", false), this::build);
+        cache.get(key("hero", true), this::build);
+        cache.get(key("coin", false), this::build);
+
+        cache.removeImage("hero");
+        assertEquals(1, cache.size());
+        assertEquals(VARIANT_BYTES, cache.getBytes());
+        assertNotSame(right, cache.get(key("hero", false), this::build));
+    }
+
+    @Test
+    public void variantRemovedWhileBuildingIsNotCounted() throws IOException {
+        SpriteVariantCache cache = new SpriteVariantCache(10 * VARIANT_BYTES);
+        cache.get(key("hero", false), k -> {
+            // the image is re-added while its variant is being built
+            cache.removeImage("hero");
+            return build(k);
+        });
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getBytes());
+    }
+
+    @Test
+    public void failedBuildIsNotRemembered() throws IOException {
+        SpriteVariantCache cache = new SpriteVariantCache(10 * VARIANT_BYTES);
+        assertThrows(IOException.class, () -> cache.get(key("bad", false), k -> {
+            throw new IOException("bad image");
+        }));
+        assertEquals(0, cache.size());
+        cache.get(key("bad", false), this::build);
+        assertEquals(1, builds.get());
+    }
+}
@@ -0,0 +1,151 @@
+package com.mrstride.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.mrstride.entity.Entity;
+
+public class TextureAtlasTest {
+
+    private static SpriteVariantKey key(int n) {
+        return new SpriteVariantKey("sprite" + n, ImageService.WHOLE_IMAGE, 0, 0, false);
+    }
+
+    /**
+     * An opaque image where every pixel is different, so a misplaced copy shows.
+     */
+    private static BufferedImage image(int width, int height, int seed) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, 0xFF000000 | (seed * 7919 + y * width + x) & 0xFFFFFF);
+            }
+        }
+        return image;
+    }
+
+    private static Map<SpriteVariantKey, BufferedImage> randomSprites(int count, int maxSize) {
+        Random random = new Random(42);
+        Map<SpriteVariantKey, BufferedImage> sprites = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            sprites.put(key(i), image(1 + random.nextInt(maxSize), 1 + random.nextInt(maxSize), i));
+        }
+        return sprites;
+    }
+
+    @Test
+    public void regionsDoNotOverlapAndKeepTheirPadding() {
+        Map<SpriteVariantKey, BufferedImage> sprites = randomSprites(200, 40);
+        TextureAtlas atlas = TextureAtlas.pack(sprites, 128, false);
+        assertEquals(sprites.size(), atlas.size());
+
+        List<AtlasRegion> regions = new ArrayList<>();
+        for (SpriteVariantKey key : sprites.keySet()) {
+            AtlasRegion region = atlas.getRegion(key);
+            assertNotNull(region, key.toString());
+            assertEquals(sprites.get(key).getWidth(), region.width());
+            assertEquals(sprites.get(key).getHeight(), region.height());
+            assertTrue(region.x() >= 0 && region.x() + region.width() <= region.page().getWidth());
+            assertTrue(region.y() >= 0 && region.y() + region.height() <= region.page().getHeight());
+            regions.add(region);
+        }
+
+        for (int i = 0; i < regions.size(); i++) {
+            AtlasRegion a = regions.get(i);
+            // grow by the padding, so touching regions count as overlapping
+            Rectangle padded = new Rectangle(a.x() - TextureAtlas.PADDING, a.y() - TextureAtlas.PADDING,
+                a.width() + 2 * TextureAtlas.PADDING, a.height() + 2 * TextureAtlas.PADDING);
+            for (int j = i + 1; j < regions.size(); j++) {
+                AtlasRegion b = regions.get(j);
+                if (a.page() == b.page()) {
+                    assertFalse(padded.intersects(new Rectangle(b.x(), b.y(), b.width(), b.height())),
+                        a + " and " + b);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void packedPixelsEqualTheSources() {
+        Map<SpriteVariantKey, BufferedImage> sprites = randomSprites(50, 30);
+        TextureAtlas atlas = TextureAtlas.pack(sprites, 128, false);
+
+        for (Map.Entry<SpriteVariantKey, BufferedImage> entry : sprites.entrySet()) {
+            BufferedImage source = entry.getValue();
+            AtlasRegion region = atlas.getRegion(entry.getKey());
+            for (int y = 0; y < source.getHeight(); y++) {
+                for (int x = 0; x < source.getWidth(); x++) {
+                    assertEquals(source.getRGB(x, y), region.page().getRGB(region.x() + x, region.y() + y),
+                        entry.getKey() + " at " + x + "," + y);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void oversizeSpritesAreNotPacked() {
+        Map<SpriteVariantKey, BufferedImage> sprites = new HashMap<>();
+        sprites.put(key(0), image(10, 10, 0));
+        sprites.put(key(1), image(65, 10, 1));
+        sprites.put(key(2), image(10, 65, 2));
+
+        TextureAtlas atlas = TextureAtlas.pack(sprites, 64, false);
+        assertEquals(1, atlas.size());
+        assertNotNull(atlas.getRegion(key(0)));
+        assertNull(atlas.getRegion(key(1)));
+        assertNull(atlas.getRegion(key(2)));
+    }
+
+    @Test
+    public void fullPageStartsANewOne() {
+        // two 20x20 sprites and their padding don't fit across or down a 32x32 page
+        Map<SpriteVariantKey, BufferedImage> sprites = new HashMap<>();
+        for (int i = 0; i < 3; i++) {
+            sprites.put(key(i), image(20, 20, i));
+        }
+
+        TextureAtlas atlas = TextureAtlas.pack(sprites, 32, false);
+        assertEquals(3, atlas.getPages().size());
+        for (BufferedImage page : atlas.getPages()) {
+            assertEquals(32, page.getWidth());
+            // trimmed to the height that is used
+            assertEquals(20, page.getHeight());
+        }
+        assertNotSame(atlas.getRegion(key(0)).page(), atlas.getRegion(key(1)).page());
+        assertNotSame(atlas.getRegion(key(1)).page(), atlas.getRegion(key(2)).page());
+    }
+
+    @Test
+    public void entitiesFindTheirSpritesByVariant() throws Exception {
+        ImageServiceProvider images = new ImageServiceProvider();
+        images.addImageInfo("cloud", "cloud.png", ImageService.NORMAL_TYPE);
+        Entity cloud = new Entity("cloud", 0, 0, 50, 40, null);
+        cloud.setServices(null, images, null);
+        cloud.init();
+
+        TextureAtlas atlas = images.buildTextureAtlas();
+        AtlasRegion right = atlas.getRegion(cloud.getCurrentVariant());
+        assertNotNull(right);
+        assertEquals(50, right.width());
+        assertEquals(40, right.height());
+
+        cloud.setDirection(Animation.FACING_LEFT);
+        AtlasRegion left = atlas.getRegion(cloud.getCurrentVariant());
+        assertNotNull(left);
+        assertFalse(right.equals(left));
+    }
+}